@@ -6,8 +6,12 @@ package frc.robot;
 
 import com.pathplanner.lib.util.PIDConstants;
 
+import edu.wpi.first.apriltag.AprilTagFields;
+import edu.wpi.first.math.geometry.Rotation3d;
+import edu.wpi.first.math.geometry.Transform3d;
 import edu.wpi.first.math.geometry.Translation3d;
 import edu.wpi.first.math.util.Units;
+import frc.robot.subsystems.Vision.SimFidelity;
 import swervelib.math.Matter;
 
 /**
@@ -21,12 +25,16 @@ import swervelib.math.Matter;
 public final class Constants
 {
 
-  public static final double ROBOT_MASS = (148 - 20.3) * 0.453592; // 32lbs * kg per pound
-  public static final Matter CHASSIS    = new Matter(new Translation3d(0, 0, Units.inchesToMeters(8)), ROBOT_MASS);
-  public static final double LOOP_TIME  = 0.13; //s, 20ms + 110ms sprk max velocity lag
-  public static final double MAX_SPEED  = Units.feetToMeters(14.5);
+  public static final double ROBOT_MASS      = (148 - 20.3) * 0.453592; // 32lbs * kg per pound
+  public static final Matter CHASSIS         = new Matter(new Translation3d(0, 0, Units.inchesToMeters(8)), ROBOT_MASS);
+  public static final double ACTUATION_DELAY = 0.11; //s, sprk max velocity lag between commanding and measuring
+  public static final double LOOP_TIME       = 0.02 + ACTUATION_DELAY; //s, 20ms + 110ms sprk max velocity lag
+  public static final double MAX_SPEED       = Units.feetToMeters(14.5);
       // Maximum speed of the robot in meters per second, used to limit acceleration.
 
+  // Publish live tunable swerve gains, set to true only on the practice field, competition builds compile it out.
+  public static final boolean TUNING_MODE = false;
+
   public static final class AutonConstants
   {
 
@@ -38,24 +46,39 @@ public final class Constants
   {
 
     // Hold time on motor brakes when disabled
-    public static final double WHEEL_LOCK_TIME = 10; // seconds
+    public static final double WHEEL_LOCK_TIME  = 10; // seconds
+    // Update rate of the navX over SPI, the heading odometry integrates the wheel positions with
+    public static final double NAVX_UPDATE_RATE = 60; // Hz, navX default
+    // Period of the YAGSL odometry thread, decoupled from the 20ms robot loop and capped at the navX rate
+    public static final double ODOMETRY_PERIOD  = 1 / NAVX_UPDATE_RATE; // seconds, about 17ms
 
     public static double Max_Speed_Multiplier = 0.75;
+  }
 
-    public static double DrivekP = 0.00023;
-    public static double DrivekI = 0.0000002;
-    public static double DrivekD = 1.0;
-    public static double DrivekF = 0.0;
-    public static double DrivekIz = 0.0;
-
-    public static double AnglekP = 0.004; //045
-    public static double AnglekI = 0.0;
-    public static double AnglekD = 1.5;
-    public static double AnglekF = 0.0; //0.000005
-    public static double AnglekIz = 0.0;
+  public static final class ShooterConstants
+  {
+
+    // Measured note time of flight to the speaker opening at each distance, for shoot on the move lead
+    public static final double[] SHOT_DISTANCES = {1.0, 2.0, 3.0, 4.0, 5.0, 6.0}; // meters
+    public static final double[] SHOT_TIMES     = {0.12, 0.19, 0.26, 0.33, 0.41, 0.50}; // seconds
   }
 
 
+  public static final class VisionConstants
+  {
+
+    // AprilTag camera simulation tier, can be overridden with ./gradlew simulateJava -PsimFidelity=<tier>
+    public static final SimFidelity SIM_FIDELITY        = SimFidelity.RASTER;
+    // Rate the ANALYTICAL tier publishes results at
+    public static final double      ANALYTICAL_SIM_RATE = 30; // Hz
+    // Publish tracked targets and estimates to the Field2d, set to false for competition to skip the work entirely
+    public static final boolean     PUBLISH_FIELD       = true;
+    // Object detection camera, facing the intake at the back of the robot and pitched down towards the carpet
+    public static final Transform3d NOTE_CAMERA         =
+        new Transform3d(new Translation3d(Units.inchesToMeters(-12.0), 0, Units.inchesToMeters(16.0)),
+                        new Rotation3d(0, Units.degreesToRadians(20), Math.PI));
+  }
+
   public static class OperatorConstants
   {
 
@@ -68,6 +91,9 @@ public final class Constants
   
   public static final class AprilTagConstants
   {
+    // Field whose AprilTag layout is loaded by FieldLayout
+    public static final AprilTagFields FIELD = AprilTagFields.k2024Crescendo;
+
     public static int ampID = 0;
     public static int speakerID = 0;
     public static int stageIDA = 0;
@@ -5,23 +5,22 @@
 package frc.robot;
 
 import edu.wpi.first.wpilibj.DriverStation;
-import edu.wpi.first.wpilibj.DriverStation.Alliance;
-import edu.wpi.first.wpilibj.Filesystem;
 import edu.wpi.first.wpilibj.TimedRobot;
 import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.CommandScheduler;
-import frc.robot.Constants.AprilTagConstants;
+import edu.wpi.first.wpilibj2.command.button.Trigger;
 import frc.robot.subsystems.LEDsSubSystem;
+import frc.robot.subsystems.Vision.FieldTargets;
 import frc.robot.subsystems.Vision.ObjectVision;
-
-import java.io.File;
-import java.io.IOException;
+import frc.robot.util.AutoSimRunner;
+import frc.robot.util.DataLogger;
+import frc.robot.util.LoopProfiler;
+import frc.robot.util.StartupTracer;
+import frc.robot.util.Telemetry;
 
 import org.photonvision.PhotonCamera;
 
-import swervelib.parser.SwerveParser;
-
 /**
  * The VM is configured to automatically run this class, and to call the functions corresponding to each mode, as
  * described in the TimedRobot documentation. If you change the name of this class or the package after creating this
@@ -35,11 +34,23 @@ public class Robot extends TimedRobot
 
   private RobotContainer m_robotContainer;
   ObjectVision m_ObjectVision;
-  public static PhotonCamera camObj = new PhotonCamera("camObj"); // Create a new PhotonCamera object
-  public static LEDsSubSystem m_LEDsSubSystem = new LEDsSubSystem(); // Create a new LEDsSubSystem object
+  public static PhotonCamera camObj;
+  public static LEDsSubSystem m_LEDsSubSystem;
+
+  static
+  {
+    StartupTracer.begin("Robot static init");
+    camObj = new PhotonCamera("camObj"); // Create a new PhotonCamera object
+    m_LEDsSubSystem = new LEDsSubSystem(); // Create a new LEDsSubSystem object
+    StartupTracer.end();
+  }
 
   private Timer disabledTimer;
 
+  private final LoopProfiler.Channel schedulerTimer        = LoopProfiler.channel("Robot.scheduler");
+  private final LoopProfiler.Channel disabledPeriodicTimer = LoopProfiler.channel("Robot.disabledPeriodic");
+  private final LoopProfiler.Channel teleopPeriodicTimer   = LoopProfiler.channel("Robot.teleopPeriodic");
+
   public Robot()
   {
     instance = this;
@@ -50,6 +61,26 @@ public class Robot extends TimedRobot
     return instance;
   }
 
+  /**
+   * Get the robot container.
+   *
+   * @return The {@link RobotContainer} created in {@link #robotInit()}.
+   */
+  public RobotContainer getRobotContainer()
+  {
+    return m_robotContainer;
+  }
+
+  /**
+   * Whether the autonomous command scheduled in {@link #autonomousInit()} is still running.
+   *
+   * @return True while the autonomous command is scheduled.
+   */
+  public boolean isAutonomousRunning()
+  {
+    return m_autonomousCommand != null && m_autonomousCommand.isScheduled();
+  }
+
   /**
    * This function is run when the robot is first started up and should be used for any initialization code.
    */
@@ -58,13 +89,39 @@ public class Robot extends TimedRobot
   {
     // Instantiate our RobotContainer.  This will perform all our button bindings, and put our
     // autonomous chooser on the dashboard.
+    StartupTracer.begin("robotInit");
+    DataLogger.start();
+    StartupTracer.begin("RobotContainer");
     m_robotContainer = new RobotContainer();
-    m_ObjectVision = new ObjectVision(m_LEDsSubSystem);
+    StartupTracer.end();
+    StartupTracer.begin("ObjectVision");
+    m_ObjectVision = new ObjectVision();
+    StartupTracer.end();
     DriverStation.silenceJoystickConnectionWarning(true); // Silence the joystick connection warning
 
+    // The default LED effect shows the disabled/alliance state, seeing a note in teleop overrides it.
+    m_LEDsSubSystem.setDefaultCommand(m_LEDsSubSystem.defaultEffect());
+    new Trigger(DriverStation::isTeleopEnabled).and(m_ObjectVision::watchForNote)
+                                               .whileTrue(m_LEDsSubSystem.fadeEffect(150, 255));
+
     // Create a timer to disable motor brake a few seconds after disable.  This will let the robot stop
     // immediately when disabled, but then also let it be pushed more 
     disabledTimer = new Timer();
+
+    // Must be the last binding so command timing starts after every trigger has been polled.
+    LoopProfiler.bindCommandTiming();
+    StartupTracer.finish();
+  }
+
+  /**
+   * Runs every loop. Advances the telemetry loop before the mode specific periodic functions, which TimedRobot runs
+   * before {@link #robotPeriodic()}, so channels checked there see the current loop and match mode.
+   */
+  @Override
+  protected void loopFunc()
+  {
+    Telemetry.periodic();
+    super.loopFunc();
   }
 
   /**
@@ -81,7 +138,14 @@ public class Robot extends TimedRobot
     // commands, running already-scheduled commands, removing finished or interrupted commands,
     // and running subsystem periodic() methods.  This must be called from the robot's periodic
     // block in order for anything in the Command-based framework to work.
+    DataLogger.loopStart();
+    LoopProfiler.loopStart();
+    FieldTargets.update();
+    schedulerTimer.start();
     CommandScheduler.getInstance().run();
+    schedulerTimer.stop();
+    LoopProfiler.periodic();
+    DataLogger.loopEnd();
   }
 
   /**
@@ -98,12 +162,13 @@ public class Robot extends TimedRobot
   @Override
   public void disabledPeriodic()
   {
+    disabledPeriodicTimer.start();
     if (disabledTimer.hasElapsed(Constants.DrivebaseConstants.WHEEL_LOCK_TIME))
     {
       m_robotContainer.setMotorBrake(false);
       disabledTimer.stop();
     }
-    m_LEDsSubSystem.scanEffect(60, 255, 255);
+    disabledPeriodicTimer.stop();
   }
 
   /**
@@ -114,7 +179,7 @@ public class Robot extends TimedRobot
   {
     m_robotContainer.setMotorBrake(true);
     m_autonomousCommand = m_robotContainer.getAutonomousCommand();
-    aprilTagAlliance();
+    FieldTargets.update();
 
     // schedule the autonomous command (example)
     if (m_autonomousCommand != null)
@@ -144,7 +209,7 @@ public class Robot extends TimedRobot
     }
     m_robotContainer.setDriveMode();
     m_robotContainer.setMotorBrake(true);
-    aprilTagAlliance();
+    FieldTargets.update();
   }
 
   /**
@@ -153,8 +218,9 @@ public class Robot extends TimedRobot
   @Override
   public void teleopPeriodic()
   {
+    teleopPeriodicTimer.start();
     m_robotContainer.spencerButtons();
-    m_ObjectVision.watchForNote(); 
+    teleopPeriodicTimer.stop();
   }
 
   @Override
@@ -162,13 +228,6 @@ public class Robot extends TimedRobot
   {
     // Cancels all running commands at the start of test mode.
     CommandScheduler.getInstance().cancelAll();
-    try
-    {
-      new SwerveParser(new File(Filesystem.getDeployDirectory(), "swerve"));
-    } catch (IOException e)
-    {
-      throw new RuntimeException(e);
-    }
   }
 
   /**
@@ -185,6 +244,8 @@ public class Robot extends TimedRobot
   @Override
   public void simulationInit()
   {
+    // Only starts when running the headless auto simulation, see AutoSimRunner.
+    AutoSimRunner.start();
   }
 
   /**
@@ -194,15 +255,5 @@ public class Robot extends TimedRobot
   public void simulationPeriodic()
   {
   }
-  
-    /**
-   * Sets the AprilTag constants based on the alliance color.
-   */
-  public static void aprilTagAlliance(){
-    AprilTagConstants.ampID     = DriverStation.getAlliance().get() == Alliance.Blue ? 6 : 5;
-    AprilTagConstants.speakerID = DriverStation.getAlliance().get() == Alliance.Blue ? 7 : 4;
-    AprilTagConstants.stageIDA  = DriverStation.getAlliance().get() == Alliance.Blue ? 14 : 13;
-    AprilTagConstants.stageIDB  = DriverStation.getAlliance().get() == Alliance.Blue ? 15 : 12;
-    AprilTagConstants.stageIDC  = DriverStation.getAlliance().get() == Alliance.Blue ? 16 : 11;
-  }
+
 }
@@ -5,6 +5,7 @@
 package frc.robot;
 
 import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Pose2d;
 import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.geometry.Transform2d;
 import edu.wpi.first.wpilibj.Filesystem;
@@ -13,14 +14,16 @@ import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.Commands;
 import edu.wpi.first.wpilibj2.command.button.CommandXboxController;
 import edu.wpi.first.wpilibj2.command.button.Trigger;
-import frc.robot.Constants.AprilTagConstants;
 import frc.robot.Constants.DrivebaseConstants;
 import frc.robot.Constants.OperatorConstants;
+import frc.robot.commands.swervedrive.auto.AutoPreloader;
 import frc.robot.commands.swervedrive.drivebase.AbsoluteDriveAdvAim;
 import frc.robot.subsystems.Vision.FiducialVision;
+import frc.robot.subsystems.Vision.FieldTargets;
 import frc.robot.subsystems.Vision.ObjectVision;
 import frc.robot.subsystems.swervedrive.SwerveSubsystem;
 import java.io.File;
+import java.util.List;
 
 /**
  * This class is where the bulk of the robot should be declared. Since Command-based is a "declarative" paradigm, very
@@ -35,6 +38,15 @@ public class RobotContainer
   // The robot's subsystems and commands are defined here...
   private final SwerveSubsystem drivebase = new SwerveSubsystem(new File(Filesystem.getDeployDirectory(),
                                                                          "swerve/neo"));
+  // Autos and pathfinding commands built ahead of time so they don't stall their first loop.
+  private final AutoPreloader   autoPreloader       = new AutoPreloader(drivebase);
+
+  // Shot poses 1.7 meters in front of each alliance speaker, fixed for the match so they are built once.
+  private final Pose2d          blueSpeakerShotPose = getSpeakerShotPose(false);
+  private final Pose2d          redSpeakerShotPose  = getSpeakerShotPose(true);
+
+  // Auto run by getAutonomousCommand()
+  private       String          autonomous          = "New Auto";
 
   ObjectVision objectVision;
   FiducialVision fiducialVision;
@@ -44,6 +56,7 @@ public class RobotContainer
    */
   public RobotContainer()
   {
+    autoPreloader.preload(blueSpeakerShotPose, redSpeakerShotPose);
     // Configure the trigger bindings
     configureBindings();
 
@@ -105,16 +118,10 @@ public class RobotContainer
     //                                                    vision,
     //                                                    drivebase)); 
     
-    driverXbox.b().whileTrue(Commands.deferredProxy(() -> drivebase.driveToPose(
-                             FiducialVision.getAprilTagPose(AprilTagConstants.speakerID,
-                                                            new Transform2d(1.7, 0,
-                                                            Rotation2d.fromDegrees(0))))));
-
-    // driverXbox.b().whileTrue(new DriveToNoteCmd(drivebase).andThen
-    //                         (new DriveDistancePPID(-.5, 0, 0, .1, drivebase)));
+    driverXbox.b().whileTrue(Commands.deferredProxy(() -> autoPreloader.getPathfindCommand(getSpeakerShotPose())));
 
-    // driverXbox.b().whileTrue(new DriveToNoteCmd(drivebase).andThen
-    //                         (drivebase.driveToPose(drivebase.getOffsetPose(0.5, 0.0, 0.0))));
+    // DriveToNoteCmd ends with the intake on the note, no separate drive distance is needed afterwards.
+    // driverXbox.b().whileTrue(new DriveToNoteCmd(drivebase));
 
     // driverXbox.a().whileTrue(Commands.deferredProxy(() ->
     //                         (drivebase.driveToPose(drivebase.getOffsetPose(1.0, 1.0, 30.0)))));
@@ -132,7 +139,58 @@ public class RobotContainer
   public Command getAutonomousCommand()
   {
     // An example command will be run in autonomous
-    return drivebase.getAutonomousCommand("New Auto");
+    return autoPreloader.getAuto(autonomous);
+  }
+
+  /**
+   * Select the auto returned by {@link #getAutonomousCommand()}.
+   *
+   * @param name Name of the auto file without the extension.
+   */
+  public void setAutonomous(String name)
+  {
+    autonomous = name;
+  }
+
+  /**
+   * Get the names of every auto in the deploy directory.
+   *
+   * @return Auto names.
+   */
+  public List<String> getAutoNames()
+  {
+    return autoPreloader.getAutoNames();
+  }
+
+  /**
+   * Get the pose of the robot.
+   *
+   * @return The robot's pose.
+   */
+  public Pose2d getRobotPose()
+  {
+    return drivebase.getPose();
+  }
+
+  /**
+   * Get the pose in front of the speaker to shoot from.
+   *
+   * @return Pose 1.7 meters in front of the alliance speaker.
+   */
+  private Pose2d getSpeakerShotPose()
+  {
+    return FieldTargets.isRedAlliance() ? redSpeakerShotPose : blueSpeakerShotPose;
+  }
+
+  /**
+   * Get the pose in front of a speaker to shoot from.
+   *
+   * @param redAlliance Whether to use the red alliance speaker.
+   * @return Pose 1.7 meters in front of the speaker.
+   */
+  private static Pose2d getSpeakerShotPose(boolean redAlliance)
+  {
+    return FieldTargets.getSpeakerPose(redAlliance).transformBy(new Transform2d(1.7, 0, Rotation2d.fromDegrees(0)));
   }
 
   public void setDriveMode()
@@ -0,0 +1,205 @@
+package frc.robot.commands.swervedrive.auto;
+
+import com.pathplanner.lib.commands.PathPlannerAuto;
+import com.pathplanner.lib.controllers.PPHolonomicDriveController;
+import com.pathplanner.lib.path.PathPlannerPath;
+import com.pathplanner.lib.path.PathPlannerTrajectory;
+import com.pathplanner.lib.pathfinding.Pathfinding;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.Filesystem;
+import edu.wpi.first.wpilibj2.command.Command;
+import frc.robot.Constants.AutonConstants;
+import frc.robot.subsystems.swervedrive.SwerveSubsystem;
+import frc.robot.util.StartupTracer;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds every PathPlanner auto and path in the deploy directory during robotInit and keeps the commands, so
+ * autonomousInit and button presses do not pay for file parsing, class loading and JIT warm-up in the first loop.
+ */
+public class AutoPreloader
+{
+
+  /**
+   * Number of trajectory samples fed through the follower for each path while warming up.
+   */
+  private static final int                          WARMUP_SAMPLES   = 200;
+  /**
+   * PathPlanner deploy directory.
+   */
+  private static final File                         PATHPLANNER_DIR  = new File(Filesystem.getDeployDirectory(),
+                                                                                "pathplanner");
+  /**
+   * Swerve drive the commands are built for.
+   */
+  private final        SwerveSubsystem              drivebase;
+  /**
+   * Autos by file name without the extension.
+   */
+  private final        Map<String, Command>         autos            = new HashMap<>();
+  /**
+   * Paths by file name without the extension.
+   */
+  private final        Map<String, PathPlannerPath> paths            = new HashMap<>();
+  /**
+   * Pathfinding commands by their target pose.
+   */
+  private final        Map<Pose2d, Command>         pathfindCommands = new HashMap<>();
+
+  /**
+   * Create the preloader, call {@link #preload(Pose2d...)} to load and warm up the commands.
+   *
+   * @param drivebase Swerve drive with AutoBuilder configured.
+   */
+  public AutoPreloader(SwerveSubsystem drivebase)
+  {
+    this.drivebase = drivebase;
+  }
+
+  /**
+   * Load every {@code .auto} and {@code .path} file, run the follower and pathfinder once so the code paths are
+   * loaded and warm before autonomous, and build the pathfinding commands to the given poses.
+   *
+   * @param pathfindTargets Poses pathfinding commands are needed for, such as the shot pose of both alliances.
+   */
+  public void preload(Pose2d... pathfindTargets)
+  {
+    StartupTracer.begin("AutoPreloader");
+    for (String name : listFiles("autos", ".auto"))
+    {
+      try
+      {
+        autos.put(name, new PathPlannerAuto(name));
+      } catch (RuntimeException e)
+      {
+        DriverStation.reportError("Failed to load auto " + name + ": " + e.getMessage(), e.getStackTrace());
+      }
+    }
+    for (String name : listFiles("paths", ".path"))
+    {
+      try
+      {
+        paths.put(name, PathPlannerPath.fromPathFile(name));
+      } catch (RuntimeException e)
+      {
+        DriverStation.reportError("Failed to load path " + name + ": " + e.getMessage(), e.getStackTrace());
+      }
+    }
+    warmUpFollower();
+    warmUpPathfinder();
+    for (Pose2d pose : pathfindTargets)
+    {
+      getPathfindCommand(pose);
+    }
+    StartupTracer.end();
+  }
+
+  /**
+   * Get the names of the preloaded autos.
+   *
+   * @return Auto names in alphabetical order.
+   */
+  public List<String> getAutoNames()
+  {
+    List<String> names = new ArrayList<>(autos.keySet());
+    Collections.sort(names);
+    return names;
+  }
+
+  /**
+   * Get a preloaded auto, autos which were not found by {@link #preload(Pose2d...)} are built on demand.
+   *
+   * @param name Name of the auto file without the extension.
+   * @return The auto command.
+   */
+  public Command getAuto(String name)
+  {
+    return autos.computeIfAbsent(name, PathPlannerAuto::new);
+  }
+
+  /**
+   * Get the pathfinding command to a pose, the command is built on first use and reused afterwards. Poses passed to
+   * {@link #preload(Pose2d...)} are already built.
+   *
+   * @param pose Target pose.
+   * @return Pathfinding command from {@link SwerveSubsystem#driveToPose(Pose2d)}.
+   */
+  public Command getPathfindCommand(Pose2d pose)
+  {
+    return pathfindCommands.computeIfAbsent(pose, drivebase::driveToPose);
+  }
+
+  /**
+   * Generate the trajectory of each path for both alliances and run the holonomic controller and kinematics over it,
+   * the same work the path following command does every loop.
+   */
+  private void warmUpFollower()
+  {
+    PPHolonomicDriveController controller = new PPHolonomicDriveController(AutonConstants.TRANSLATION_PID,
+                                                                           AutonConstants.ANGLE_PID,
+                                                                           4.5,
+                                                                           drivebase.getSwerveDriveConfiguration()
+                                                                                    .getDriveBaseRadiusMeters());
+    SwerveDriveKinematics kinematics = drivebase.getKinematics();
+    for (PathPlannerPath path : paths.values())
+    {
+      for (PathPlannerPath alliancePath : new PathPlannerPath[]{path, path.flipPath()})
+      {
+        PathPlannerTrajectory trajectory = alliancePath.getTrajectory(new ChassisSpeeds(), new Rotation2d());
+        double                duration   = trajectory.getTotalTimeSeconds();
+        for (int i = 0; i <= WARMUP_SAMPLES; i++)
+        {
+          PathPlannerTrajectory.State state = trajectory.sample(duration * i / WARMUP_SAMPLES);
+          ChassisSpeeds speeds = controller.calculateRobotRelativeSpeeds(state.getTargetHolonomicPose(), state);
+          SwerveModuleState[] states = kinematics.toSwerveModuleStates(speeds);
+          SwerveDriveKinematics.desaturateWheelSpeeds(states, 4.5);
+        }
+      }
+    }
+  }
+
+  /**
+   * Start the pathfinder thread and have it plan one path across the field so the navgrid is loaded and the planner is
+   * warm before the first pathfinding command.
+   */
+  private void warmUpPathfinder()
+  {
+    Pathfinding.ensureInitialized();
+    Pathfinding.setStartPosition(new Translation2d(2.0, 2.0));
+    Pathfinding.setGoalPosition(new Translation2d(8.0, 4.0));
+  }
+
+  /**
+   * List the files in a PathPlanner deploy sub directory.
+   *
+   * @param directory Sub directory of the PathPlanner deploy directory.
+   * @param extension File extension including the dot.
+   * @return Names of the files without the extension.
+   */
+  private static String[] listFiles(String directory, String extension)
+  {
+    File[] files = new File(PATHPLANNER_DIR, directory).listFiles((dir, name) -> name.endsWith(extension));
+    if (files == null)
+    {
+      return new String[0];
+    }
+    String[] names = new String[files.length];
+    for (int i = 0; i < files.length; i++)
+    {
+      String name = files[i].getName();
+      names[i] = name.substring(0, name.length() - extension.length());
+    }
+    return names;
+  }
+}
@@ -7,10 +7,10 @@ package frc.robot.commands.swervedrive.drivebase;
 import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.geometry.Translation2d;
 import edu.wpi.first.math.kinematics.ChassisSpeeds;
-import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 import edu.wpi.first.wpilibj2.command.Command;
 import frc.robot.Constants;
 import frc.robot.subsystems.swervedrive.SwerveSubsystem;
+import frc.robot.util.Telemetry;
 import java.util.List;
 import java.util.function.BooleanSupplier;
 import java.util.function.DoubleSupplier;
@@ -28,6 +28,8 @@ public class AbsoluteDriveAdvAim extends Command
   private final DoubleSupplier  headingAdjust;
   private final BooleanSupplier lookAway, lookTowards, lookLeft, lookRight, lookTarget;
   private       boolean         resetHeading = false;
+  private final Telemetry.DoubleChannel limitedTranslation =
+      Telemetry.doubleChannel("LimitedTranslation", Telemetry.Rate.MEDIUM, Telemetry.Level.DEBUG);
 
   /**
    * Used to drive a swerve robot in full field-centric mode.  vX and vY supply translation inputs, where x is
@@ -100,11 +102,12 @@ public class AbsoluteDriveAdvAim extends Command
     {
       headingY = 1;
     }
-    // Face Towards the speaker
+    // Face Towards the speaker, leading it so a shot from the moving robot lands
     if (lookTarget.getAsBoolean())
     {
-      headingX = swerve.getSpeakerYaw().getSin();
-      headingY = swerve.getSpeakerYaw().getCos();
+      double shotHeading = swerve.getShotSolver().getHeading();
+      headingX = Math.sin(shotHeading);
+      headingY = Math.cos(shotHeading);
     }
 
     // Prevent Movement After Auto
@@ -112,8 +115,8 @@ public class AbsoluteDriveAdvAim extends Command
     {
       if (headingX == 0 && headingY == 0 && Math.abs(headingAdjust.getAsDouble()) == 0)
       {
-        // Get the curret Heading
-        Rotation2d currentHeading = swerve.getHeading();
+        // Get the heading the robot will settle at, holding the current one snaps back after a fast turn
+        Rotation2d currentHeading = swerve.getPredictedPose().getRotation();
 
         // Set the Current Heading to the desired Heading
         headingX = currentHeading.getSin();
@@ -130,8 +133,7 @@ public class AbsoluteDriveAdvAim extends Command
     translation = SwerveMath.limitVelocity(translation, swerve.getFieldVelocity(), swerve.getPose(),
                                            Constants.LOOP_TIME, Constants.ROBOT_MASS, List.of(Constants.CHASSIS),
                                            swerve.getSwerveDriveConfiguration());
-    SmartDashboard.putNumber("LimitedTranslation", translation.getX());
-    SmartDashboard.putString("Translation", translation.toString());
+    limitedTranslation.set(translation.getX());
 
     // Make the robot move
     if (headingX == 0 && headingY == 0 && Math.abs(headingAdjust.getAsDouble()) > 0)
@@ -1,32 +1,78 @@
 package frc.robot.commands.swervedrive.drivebase;
 
-import org.photonvision.targeting.PhotonTrackedTarget;
-
-import edu.wpi.first.math.MathUtil;
-import edu.wpi.first.math.controller.PIDController;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
 import edu.wpi.first.wpilibj2.command.Command;
-import frc.robot.subsystems.Vision.ObjectVision;
+import edu.wpi.first.wpilibj2.command.Commands;
+import edu.wpi.first.wpilibj2.command.SequentialCommandGroup;
 import frc.robot.subsystems.swervedrive.SwerveSubsystem;
+import java.util.Set;
 
-public class DriveToNoteCmd extends Command
+/**
+ * Drive to the best note of the note tracker and pick it up. The robot holds still until a note is tracked, pathfinds
+ * to a point {@link #APPROACH_DISTANCE} in front of the note with the intake facing it, arriving at
+ * {@link #APPROACH_SPEED} instead of stopping, then drives straight through the note with the intake aligned. The path
+ * is a deferred pathfinding command restarted whenever the note estimate moves by more than
+ * {@link #RETARGET_DISTANCE}, and the final approach follows the estimate every loop.
+ */
+public class DriveToNoteCmd extends SequentialCommandGroup
 {
+
+  /**
+   * Distance in meters from the note at which the path ends and the final approach starts.
+   */
+  private static final double     APPROACH_DISTANCE = 0.75;
+  /**
+   * Distance in meters beyond {@link #APPROACH_DISTANCE} at which the path hands off to the final approach, so the
+   * path ending just outside of the approach distance does not plan another tiny path.
+   */
+  private static final double     HANDOFF_MARGIN    = 0.25;
+  /**
+   * Speed in meters per second of the final approach, the path arrives with this speed.
+   */
+  private static final double     APPROACH_SPEED    = 1.5;
+  /**
+   * Distance in meters the note estimate has to move before the path is replanned.
+   */
+  private static final double     RETARGET_DISTANCE = 0.3;
+  /**
+   * Distance in meters from the robot center to the note once the intake has it.
+   */
+  private static final double     INTAKE_DISTANCE   = 0.35;
+  /**
+   * The intake is at the back of the robot, so the robot faces away from the note.
+   */
+  private static final Rotation2d INTAKE_ROTATION   = Rotation2d.fromDegrees(180);
+
   private final SwerveSubsystem swerveSubsystem;
-  private PIDController   xController;
-  private PIDController   zController;
-  private boolean hasTargets;
-  private double TX = 0;
-  private double TZ = 0;
-  boolean droveToNote = false;
-  ObjectVision m_Vision;
+  /**
+   * Note estimate the current path was planned to.
+   */
+  private       Translation2d   pathTarget;
+  /**
+   * Latest note estimate, kept when the note drops out of view under the robot.
+   */
+  private       Translation2d   note;
 
+  /**
+   * Drive to the note tracked by {@link SwerveSubsystem#getBestNote()}.
+   *
+   * @param swerveSubsystem The swerve drivebase subsystem.
+   */
   public DriveToNoteCmd(SwerveSubsystem swerveSubsystem)
   {
     this.swerveSubsystem = swerveSubsystem;
-    
-    // each subsystem used by the command must be passed into the
-    // addRequirements() method (which takes a vararg of Subsystem)
-    addRequirements(swerveSubsystem);
+
+    addCommands(
+        // Nothing seen yet, hold still until the tracker confirms a note.
+        swerveSubsystem.run(() -> swerveSubsystem.drive(new ChassisSpeeds())).until(() -> updateNote() != null),
+        Commands.defer(this::planPath, Set.of(swerveSubsystem))
+                .until(this::shouldReplan)
+                .repeatedly()
+                .until(() -> getDistanceToNote() <= APPROACH_DISTANCE + HANDOFF_MARGIN),
+        swerveSubsystem.run(this::driveThroughNote).until(() -> getDistanceToNote() <= INTAKE_DISTANCE));
   }
 
   /**
@@ -35,88 +81,103 @@ public class DriveToNoteCmd extends Command
   @Override
   public void initialize()
   {
-    droveToNote = false;
-    hasTargets = false;
-    xController = new PIDController(0.125, 0.00, 0.0);
-    //yController = new PIDController(0.0625, 0.00375, 0.0001);
-    zController = new PIDController(0.09,0.0, 0.000);
-    xController.setTolerance(1);
-    //yController.setTolerance(3);
-    zController.setTolerance(1);
+    pathTarget = null;
+    note = null;
+    super.initialize();
   }
 
-    /**
-   * The main body of a command.  Called repeatedly while the command is scheduled. (That is, it is called repeatedly
-   * until {@link #isFinished()}) returns true.)
+  /**
+   * The action to take when the command ends. Called when either the command finishes normally -- that is it is called
+   * when {@link #isFinished()} returns true -- or when  it is interrupted/canceled. This is where you may want to wrap
+   * up loose ends, like shutting off a motor that was being used in the command.
    *
-   * This method retrieves the latest result from PhotonVision and checks if there are any targets.
-   * If targets are found, it calculates the translation values for the x and z axes using PID controllers.
-   * It then drives the swerve subsystem based on the calculated translation values.
-   * If the swerve subsystem reaches the x-axis setpoint, it initiates a drive distance command to approach the note.
+   * @param interrupted whether the command was interrupted/canceled
    */
   @Override
-  public void execute()
+  public void end(boolean interrupted)
   {
-    var result = ObjectVision.camObj.getLatestResult();  // Get the latest result from PhotonVision
-    hasTargets = result.hasTargets(); // Check if the latest result has any targets.
-    PhotonTrackedTarget target = result.getBestTarget(); // Get the best target from the latest result.
-    if (hasTargets == true) { // If there are targets found
-      TZ = target.getYaw(); // Get the yaw of the target
-      
-      //The code below is to track a single note instead of sometimes driving towards a note further ahead that it might see.
-      if (TX == 0) { //If the target pitch is 0 (the first time the code runs), set the target pitch to the current pitch
-        TX = target.getPitch();
-      } else if (target.getPitch() <= TX) {
-        TX = target.getPitch(); //If the target pitch is less than the current pitch, set the target pitch to the current pitch
-      }
+    super.end(interrupted);
+    swerveSubsystem.drive(new ChassisSpeeds());
+    //Robot.LEDsSubSystem.fireEffect(); // Fire the LEDs effect
+  }
 
-      double translationValx = MathUtil.clamp(xController.calculate(TX, -9), -4 , 4); //Tune the setpoint to be where the note is just barely found.
-      double translationValz = MathUtil.clamp(zController.calculate(TZ, 0.0), -6.0 , 6.0); //* throttle, 2.5 * throttle);
+  /**
+   * Update the note estimate from the tracker, keeping the previous one while the note is not tracked.
+   *
+   * @return The latest note estimate, null when no note was seen yet.
+   */
+  private Translation2d updateNote()
+  {
+    Translation2d estimate = swerveSubsystem.getBestNote();
+    if (estimate != null)
+    {
+      note = estimate;
+    }
+    return note;
+  }
 
-      if(droveToNote != true) { // If the swerve subsystem has not driven to the note
-        if (xController.atSetpoint() != true) { // If the swerve subsystem has not reached the x-axis setpoint
-            swerveSubsystem.drive(new Translation2d(translationValx, 0.0), translationValz, false); // Drive the swerve subsystem based on the calculated translation values
-          } else { // If the swerve subsystem has reached the x-axis setpoint
-            //new DriveDistancePPID(.5, 0.0, 0.0, .1, swerveSubsystem); // Initiate a drive distance command to approach the note
-            droveToNote = true; // Set droveToNote to true
-          }
-      }
-    }    
+  /**
+   * Distance from the robot to the latest note estimate.
+   *
+   * @return Distance in meters.
+   */
+  private double getDistanceToNote()
+  {
+    return swerveSubsystem.getPose().getTranslation().getDistance(updateNote());
   }
 
+  /**
+   * Plan a path to the approach pose of the latest note estimate, run by the deferred command every time it starts.
+   *
+   * @return The pathfinding command.
+   */
+  private Command planPath()
+  {
+    pathTarget = note;
+    return swerveSubsystem.driveToPose(getApproachPose(swerveSubsystem.getPose(), note), APPROACH_SPEED);
+  }
 
   /**
-   * <p>
-   * Returns whether this command has finished. Once a command finishes -- indicated by this method returning true --
-   * the scheduler will call its {@link #end(boolean)} method.
-   * </p><p>
-   * Returning false will result in the command never ending automatically. It may still be cancelled manually or
-   * interrupted by another command. Hard coding this command to always return true will result in the command executing
-   * once and finishing immediately. It is recommended to use *
-   * {@link edu.wpi.first.wpilibj2.command.InstantCommand InstantCommand} for such an operation.
-   * </p>
+   * Whether the note estimate moved far enough from the path target to plan a new path.
    *
-   * @return whether this command has finished.
+   * @return True to replan.
    */
-  @Override
-  public boolean isFinished()
+  private boolean shouldReplan()
   {
-    return droveToNote; // Return whether the swerve subsystem has driven to the note
+    return pathTarget.getDistance(updateNote()) > RETARGET_DISTANCE;
   }
 
   /**
-   * The action to take when the command ends. Called when either the command finishes normally -- that is it is called
-   * when {@link #isFinished()} returns true -- or when  it is interrupted/canceled. This is where you may want to wrap
-   * up loose ends, like shutting off a motor that was being used in the command.
+   * Get the pose to pathfind to, {@link #APPROACH_DISTANCE} before the note on the line from the robot with the intake
+   * facing the note.
    *
-   * @param interrupted whether the command was interrupted/canceled
+   * @param pose Current robot pose.
+   * @param note Field relative note position.
+   * @return The approach pose.
    */
-  @Override
-  public void end(boolean interrupted)
+  private static Pose2d getApproachPose(Pose2d pose, Translation2d note)
   {
-    //swerveSubsystem.lock();
-    TX = 0;
-    droveToNote = false;
-    //Robot.LEDsSubSystem.fireEffect(); // Fire the LEDs effect
+    Rotation2d direction = note.minus(pose.getTranslation()).getAngle();
+    return new Pose2d(note.minus(new Translation2d(APPROACH_DISTANCE, direction)),
+                      direction.plus(INTAKE_ROTATION));
+  }
+
+  /**
+   * Drive straight at the note at {@link #APPROACH_SPEED} while turning the intake to it. The speed is scaled down
+   * while the intake is not facing the note so the robot does not push the note away with the bumper. Steers from
+   * {@link SwerveSubsystem#getPredictedPose()}, where the robot will be once the command takes effect, so the heading
+   * controller does not overshoot by the actuation delay at approach speed.
+   */
+  private void driveThroughNote()
+  {
+    Pose2d     pose      = swerveSubsystem.getPredictedPose();
+    Rotation2d direction = updateNote().minus(pose.getTranslation()).getAngle();
+    Rotation2d heading   = direction.plus(INTAKE_ROTATION);
+    double     speed     = APPROACH_SPEED * Math.max(0, heading.minus(pose.getRotation()).getCos());
+    double     omega     = swerveSubsystem.getSwerveController()
+                                          .headingCalculate(pose.getRotation().getRadians(), heading.getRadians());
+    swerveSubsystem.driveFieldOriented(new ChassisSpeeds(direction.getCos() * speed,
+                                                         direction.getSin() * speed,
+                                                         omega));
   }
-}
\ No newline at end of file
+}
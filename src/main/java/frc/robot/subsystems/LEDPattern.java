@@ -0,0 +1,55 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.subsystems;
+
+/**
+ * A pattern which can be rendered onto the LED strip by {@link LEDsSubSystem#render(LEDPattern)}.
+ * Colors are packed HSV integers created with {@link #hsv(int, int, int)} so rendering never allocates.
+ * Patterns can be layered with {@link #overlay(LEDPattern)}, pixels returned as {@link #TRANSPARENT} show the pattern
+ * underneath.
+ */
+@FunctionalInterface
+public interface LEDPattern {
+
+  /**
+   * Pixel value which leaves the pixel underneath unchanged.
+   */
+  int TRANSPARENT = -1;
+
+  /**
+   * Get the color of a pixel.
+   *
+   * @param index  the index of the pixel
+   * @param length the length of the LED strip
+   * @param frame  the frame number, increases by one every time the strip is rendered
+   * @return the packed HSV color of the pixel or {@link #TRANSPARENT}
+   */
+  int hsvAt(int index, int length, int frame);
+
+  /**
+   * Layer another pattern on top of this one.
+   *
+   * @param top the pattern drawn over this one, its transparent pixels show this pattern
+   * @return the layered pattern
+   */
+  default LEDPattern overlay(LEDPattern top) {
+    return (index, length, frame) -> {
+      int color = top.hsvAt(index, length, frame);
+      return color == TRANSPARENT ? hsvAt(index, length, frame) : color;
+    };
+  }
+
+  /**
+   * Pack an HSV color into an integer.
+   *
+   * @param hue   the hue value of the color (0-180)
+   * @param sat   the saturation of the color (0-255)
+   * @param value the value/brightness of the color (0-255)
+   * @return the packed color
+   */
+  static int hsv(int hue, int sat, int value) {
+    return (hue & 0xFF) << 16 | (sat & 0xFF) << 8 | (value & 0xFF);
+  }
+}
@@ -4,26 +4,75 @@
 
 package frc.robot.subsystems;
 
+import java.util.Arrays;
 import java.util.Random;
 import edu.wpi.first.wpilibj.AddressableLED;
 import edu.wpi.first.wpilibj.AddressableLEDBuffer;
+import edu.wpi.first.wpilibj.DriverStation;
 import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj2.command.Command;
+import edu.wpi.first.wpilibj2.command.FunctionalCommand;
 import edu.wpi.first.wpilibj2.command.SubsystemBase;
+import frc.robot.subsystems.Vision.FieldTargets;
+import frc.robot.util.LoopProfiler;
 
 
 public class LEDsSubSystem extends SubsystemBase {
 
+  /**
+   * One period of a sine wave mapped to brightness (0-255), used instead of calling Math.sin per pixel.
+   */
+  private static final int[] SINE_TABLE = new int[256];
+  /**
+   * Number of frames in one period of the fade effect.
+   */
+  private static final int FADE_PERIOD = 23;
+  /**
+   * Random generator shared by the random effects.
+   */
+  private static final Random RANDOM = new Random();
+  /**
+   * Flickering flame pattern.
+   */
+  private static final LEDPattern FIRE = (index, length, frame) ->
+      // A random hue resembling the color of a flame with a random brightness resembling its flickering
+      LEDPattern.hsv(RANDOM.nextInt(45), 255, RANDOM.nextInt(255));
+  /**
+   * Moving rainbow pattern, the hue moves 3 steps every frame.
+   */
+  private static final LEDPattern RAINBOW = (index, length, frame) ->
+      // Hue is easier for rainbows because the color shape is a circle so only one value needs to precess
+      LEDPattern.hsv((frame * 3 + index * 180 / length) % 180, 255, 64);
+
+  static {
+    for (var i = 0; i < SINE_TABLE.length; i++) {
+      SINE_TABLE[i] = (int) ((Math.sin(i / (double) SINE_TABLE.length * 2 * Math.PI) + 1) / 2 * 255);
+    }
+  }
+
   private AddressableLED m_led;
   private AddressableLEDBuffer m_ledBuffer;
-  private int m_rainbowFirstPixelHue;
-  private int step = 0;
-  // private boolean isOn = false;
-  private int currentLed = 0;
-  private boolean direction = true;
-  Timer ledTimerOff = new Timer();
-  Timer ledTimerOn = new Timer();
-  int setValue;
+  /**
+   * Packed HSV value last written to each pixel, used to only touch the buffer when a pixel changes.
+   */
+  private final int[] m_hsv;
+  /**
+   * Whether the buffer changed since it was last pushed to the strip.
+   */
+  private boolean m_dirty = true;
+  /**
+   * Frame number passed to the patterns, increased on every render.
+   */
+  private int m_frame = 0;
+  /**
+   * Time between frames rendered by the LED commands, 30 frames per second by default.
+   */
+  private double m_framePeriod = 1.0 / 30;
+  /**
+   * FPGA timestamp at which the next frame is due.
+   */
+  private double m_nextFrameTime = 0;
+  private final LoopProfiler.Channel periodicTimer = LoopProfiler.channel("LEDsSubSystem.periodic");
 
   public LEDsSubSystem() {
     m_led = new AddressableLED(1); // Set the LED PWM port to 0
@@ -31,13 +80,147 @@ public class LEDsSubSystem extends SubsystemBase {
     // Reuse buffer, setting length is expensive to set, so only set it once, then just update data
     m_ledBuffer = new AddressableLEDBuffer(23);  //Set the buffer length to 23
     m_led.setLength(m_ledBuffer.getLength()); //Set the length of the LED buffer
+    m_hsv = new int[m_ledBuffer.getLength()];
+    Arrays.fill(m_hsv, LEDPattern.TRANSPARENT);
     m_led.start();// Start the LED buffer
   }
 
   @Override
   public void periodic() {
     // This method will be called once per scheduler run
-    m_led.setData(m_ledBuffer); // Set the data of the LED buffer
+    periodicTimer.start();
+    if (m_dirty) { // Only push the buffer to the strip when a pixel changed
+      m_led.setData(m_ledBuffer); // Set the data of the LED buffer
+      m_dirty = false;
+    }
+    periodicTimer.stop();
+  }
+
+  /**
+   * Renders a pattern onto the LED buffer. The buffer is pushed to the strip at most once per loop by
+   * {@link #periodic()}, and only if a pixel actually changed.
+   *
+   * @param pattern the pattern to render, transparent pixels are left unchanged
+   */
+  public void render(LEDPattern pattern) {
+    int length = m_hsv.length;
+    for (var i = 0; i < length; i++) { // For every pixel
+      int color = pattern.hsvAt(i, length, m_frame);
+      if (color != LEDPattern.TRANSPARENT && color != m_hsv[i]) {
+        m_hsv[i] = color;
+        m_ledBuffer.setHSV(i, color >> 16 & 0xFF, color >> 8 & 0xFF, color & 0xFF); // Set the HSV value of the pixel
+        m_dirty = true;
+      }
+    }
+    m_frame++; // Increase the frame
+  }
+
+  /**
+   * Creates a pattern with every LED set to the same color.
+   *
+   * @param hue   the hue value of the color (0-180)
+   * @param sat   the saturation of the color (0-255)
+   * @param value the value/brightness of the color (0-255)
+   * @return the solid pattern
+   */
+  public static LEDPattern solidPattern(int hue, int sat, int value) {
+    int color = LEDPattern.hsv(hue, sat, value);
+    return (index, length, frame) -> color;
+  }
+
+  /**
+   * Creates a pattern which fades every LED between a brightness of 30 and 150.
+   *
+   * @param hue the hue value for the LEDs
+   * @param sat the saturation for the LEDs
+   * @return the fade pattern
+   */
+  public static LEDPattern fadePattern(int hue, int sat) {
+    return (index, length, frame) -> {
+      int sine = SINE_TABLE[frame % FADE_PERIOD * SINE_TABLE.length / FADE_PERIOD];
+      return LEDPattern.hsv(hue, sat, sine * (150 - 30) / 255 + 30);
+    };
+  }
+
+  /**
+   * Creates a pattern with a sine wave of brightness travelling along the strip.
+   *
+   * @param hue the hue value for the LEDs
+   * @param sat the saturation for the LEDs
+   * @return the wave pattern
+   */
+  public static LEDPattern wavePattern(int hue, int sat) {
+    return (index, length, frame) ->
+        LEDPattern.hsv(hue, sat, SINE_TABLE[(frame + index) % length * SINE_TABLE.length / length]);
+  }
+
+  /**
+   * Creates a pattern with a bright spot which bounces between the ends of the strip. Pixels away from the spot are
+   * transparent so it can be layered over another pattern.
+   *
+   * @param hue   the hue value for the LEDs
+   * @param sat   the saturation for the LEDs
+   * @param value the value (brightness) of the center of the spot
+   * @return the scanning spot pattern
+   */
+  public static LEDPattern scanSpotPattern(int hue, int sat, int value) {
+    return (index, length, frame) -> {
+      int period = Math.max(1, 2 * (length - 1));
+      int position = frame % period;
+      if (position >= length) { // Travelling back towards the start
+        position = period - position;
+      }
+      switch (Math.abs(index - position)) {
+        case 0:
+          return LEDPattern.hsv(hue, sat, value);
+        case 1:
+          return LEDPattern.hsv(hue, sat, (int) (value * 0.75));
+        case 2:
+          return LEDPattern.hsv(hue, sat, (int) (value * 0.50));
+        default:
+          return LEDPattern.TRANSPARENT;
+      }
+    };
+  }
+
+  /**
+   * Sets the rate at which the LED commands render new frames, independent of the robot loop rate. Lower it to
+   * throttle LED work when the loop is under load.
+   *
+   * @param framesPerSecond the frame rate of the LED commands
+   */
+  public void setFrameRate(double framesPerSecond) {
+    m_framePeriod = 1.0 / framesPerSecond;
+  }
+
+  /**
+   * Creates a command which renders a pattern at the LED frame rate until it is interrupted. The command runs while
+   * disabled so the LEDs can show the robot state before a match.
+   *
+   * @param pattern the pattern to render
+   * @return the command rendering the pattern
+   */
+  public Command patternCommand(LEDPattern pattern) {
+    return new FunctionalCommand(() -> m_nextFrameTime = 0, // Render the first frame immediately
+                                 () -> renderFrame(pattern),
+                                 interrupted -> {},
+                                 () -> false,
+                                 this).ignoringDisable(true);
+  }
+
+  /**
+   * Renders a pattern if the next frame is due.
+   *
+   * @param pattern the pattern to render
+   */
+  private void renderFrame(LEDPattern pattern) {
+    double now = Timer.getFPGATimestamp();
+    if (now < m_nextFrameTime) {
+      return;
+    }
+    // Keep the average frame rate when the loop period is not a multiple of the frame period
+    m_nextFrameTime = Math.max(m_nextFrameTime + m_framePeriod, now);
+    render(pattern);
   }
 
   /**
@@ -48,84 +231,52 @@ public class LEDsSubSystem extends SubsystemBase {
    * @return       the command object
    */
   public Command setSolidLED(int hue, int sat, int value) {
-    for (var i = 0; i < m_ledBuffer.getLength(); i++) { // For every pixel
-      m_ledBuffer.setHSV(i, hue, sat, value); // Set the HSV value of the pixel
-    }
-    return null;
+    return patternCommand(solidPattern(hue, sat, value)).withName("SolidLED");
   }
   
   /**
-   * Executes a fade effect on the LEDs with the specified hue and delay.
+   * Executes a fade effect on the LEDs with the specified hue and saturation.
    * 
-   * @param hue   the hue value for the LEDs
-   * @param delay the delay in milliseconds between each step of the fade effect
+   * @param hue the hue value for the LEDs
+   * @param sat the saturation for the LEDs
    * @return the Command object representing the fade effect
    */
   public Command fadeEffect(int hue, int sat) {
-    for (var i = 0; i < m_ledBuffer.getLength(); i++) {
-      int val = (int) ((Math.sin(step / 23.0 * 2 * Math.PI) + 1) / 2 * (150 - 30) + 30);
-      m_ledBuffer.setHSV(i, hue, sat, val);
-    }
-    m_led.setData(m_ledBuffer); // Set the data of the LED buffer
-    step++; // Increase the step
-    if (step >= 23) step = 0; // Reset the step when it reaches 23
-    return null;
+    return patternCommand(fadePattern(hue, sat)).withName("FadeEffect");
   }
   
   /**
    * Represents a command that controls the LEDs' fire effect.
    * This command sets the HSV values of the LED pixels to create a flickering effect resembling a flame.
-   * The command never finishes and returns null.
+   * The command never finishes.
    *
-   * @return null
+   * @return the Command object representing the fire effect
    */
   public Command fireEffect() {
-    Random random = new Random();
-        for (var i = 0; i < m_ledBuffer.getLength(); i++) {
-            // Generate a random brightness value that resembles the flickering of a flame
-            int brightness = random.nextInt(255);
-
-            // Set the hue to a value that resembles the color of a flame
-            int hue = random.nextInt(45);
-
-            m_ledBuffer.setHSV(i, hue, 255, brightness); // Set the HSV value of the pixel
-        }
-        m_led.setData(m_ledBuffer); // Set the data of the LED buffer
-
-        return null; // This command never finishes
-    }
+    return patternCommand(FIRE).withName("FireEffect"); // This command never finishes
+  }
 
   
   /**
-   * This class provides the strobeEffect method which sets the HSV value of each pixel in the LED buffer to create a strobe effect.
-   * The method takes in the hue, value, and interval parameters to control the appearance and timing of the effect.
+   * Creates a command which strobes every pixel between the given color and off.
    * 
    * @param hue the hue value for the strobe effect
    * @param value the value (brightness) value for the strobe effect
-   * @param interval the interval in milliseconds between each change in the strobe effect
-   * @return null
+   * @param duration the time in seconds the LEDs stay on, and then off
+   * @return the Command object representing the strobe effect
    */
   public Command strobeEffectVar(int hue, int sat, int value, double duration) {
-    if (ledTimerOn.get() == 0 && ledTimerOff.get() == 0){ // If the timers are not running
-      ledTimerOn.start(); // Start the on timer
-    }
-    if (ledTimerOn.get() >= duration){ // If the on timer has reached the duration
-      ledTimerOn.stop(); // Stop the on timer
-      ledTimerOn.reset(); // Reset the on timer
-      ledTimerOff.start(); // Start the off timer
-      setValue = value; // Set the value to the input value
-    }
-    else if (ledTimerOff.get() >= duration){ // If the off timer has reached the duration
-      ledTimerOff.stop(); // Stop the off timer
-      ledTimerOff.reset(); // Reset the off timer
-      ledTimerOn.start(); // Start the on timer
-      setValue = 0; // Set the value to 0
-    }
-    for (var i = 0; i < m_ledBuffer.getLength(); i++) { // For every pixel
-        m_ledBuffer.setHSV(i, hue, sat, setValue); // Set the HSV value of the pixel
-    }
-    m_led.setData(m_ledBuffer); // Set the data of the LED buffer
-    return null;
+    LEDPattern on = solidPattern(hue, sat, value);
+    LEDPattern off = solidPattern(hue, sat, 0);
+    Timer timer = new Timer();
+    return new FunctionalCommand(() -> {
+                                   timer.restart();
+                                   m_nextFrameTime = 0;
+                                 },
+                                 () -> renderFrame(timer.get() % (2 * duration) < duration ? on : off),
+                                 interrupted -> timer.stop(),
+                                 () -> false,
+                                 this).ignoringDisable(true).withName("StrobeEffect");
   }
 
   /**
@@ -134,104 +285,68 @@ public class LEDsSubSystem extends SubsystemBase {
    *
    * @param hue The hue value for the LEDs.
    * @param value The value (brightness) for the LEDs.
-   * @param interval The time interval between each LED update.
-   * @return null, as this command never finishes.
+   * @return the Command object representing the scan effect, it never finishes.
    */
   public Command scanEffect(int hue, int sat, int value) {
-    // Turn off all LEDs
-    for (var i = 0; i < m_ledBuffer.getLength(); i++) {
-      m_ledBuffer.setHSV(i, hue, sat, (int) (value * 0.25));
-    }
-
-    // Turn on the current LED
-    m_ledBuffer.setHSV(currentLed, hue, sat, value); // Set the HSV value of the pixel
-
-    int previousLed = currentLed - 1;
-    if (previousLed >= 0) {
-      m_ledBuffer.setHSV(previousLed, hue, sat, (int) (value * 0.75));
-    }
-
-    int prevPreviousLed = currentLed - 2;
-    if (prevPreviousLed >= 0) {
-      m_ledBuffer.setHSV(prevPreviousLed, hue, sat, (int) (value * 0.50));
-    }
-
-    int nextLed = currentLed + 1;
-    if (nextLed < m_ledBuffer.getLength()) {
-      m_ledBuffer.setHSV(nextLed, hue, sat, (int) (value * 0.75));
-    }
-
-    int nextNextLed = currentLed + 2;
-    if (nextNextLed < m_ledBuffer.getLength()) {
-      m_ledBuffer.setHSV(nextNextLed, hue, sat, (int) (value * 0.50));
-    }
-    
-    m_led.setData(m_ledBuffer); // Set the data of the LED buffer
-
-    // Update the current LED based on the direction
-    if (direction) {
-      currentLed++;
-      if (currentLed >= m_ledBuffer.getLength()) {
-        currentLed = m_ledBuffer.getLength() - 1;
-        direction = false;
-      }
-    } else {
-      currentLed--;
-      if (currentLed < 0) {
-        currentLed = 0;
-        direction = true;
-      }
-    }
-    return null; // This command never finishes
+    return patternCommand(scanPattern(hue, sat, value)).withName("ScanEffect"); // This command never finishes
   }
 
   /**
-   * Executes a wave effect on the LEDs with the specified hue and interval.
+   * Executes a wave effect on the LEDs with the specified hue.
    * The brightness of each pixel is calculated using a sine wave.
    * 
    * @param hue      the hue value for the LEDs
-   * @param interval the interval in milliseconds between each step of the wave effect
-   * @return null, as this command never finishes
+   * @param sat      the saturation for the LEDs
+   * @return the Command object representing the wave effect, it never finishes
    */
   public Command waveEffect(int hue, int sat) {
-        for (var i = 0; i < m_ledBuffer.getLength(); i++) {
-          // Calculate the brightness using a sine wave
-          int brightness = (int) ((Math.sin((step + i) / (double) m_ledBuffer.getLength() * 2 * Math.PI) + 1) / 2 * 255);
-          m_ledBuffer.setHSV(i, hue, sat, brightness); // Set the HSV value of the pixel
-        }
-        m_led.setData(m_ledBuffer); // Set the data of the LED buffer
-        step++; // Increase the step
-
-        return null; // This command never finishes
-    }
+    return patternCommand(wavePattern(hue, sat)).withName("WaveEffect"); // This command never finishes
+  }
 
   /**
-   * Returns a Command object that represents the fire effect.
-   * This command sets the HSV values of the LED buffer to create a fire effect.
+   * Returns a Command object that represents the rainbow effect.
+   * This command sets the HSV values of the LED buffer to create a moving rainbow.
    * 
-   * @return The Command object representing the fire effect N.
+   * @return The Command object representing the rainbow effect.
    */
   public Command rainbow() {
-    // For every pixel
-    for (var i = 0; i < m_ledBuffer.getLength(); i++) { // For every pixel
-      // Calculate the hue - hue is easier for rainbows because the color
-      // shape is a circle so only one value needs to precess
-      final var hue = (m_rainbowFirstPixelHue + (i * 180 / m_ledBuffer.getLength())) % 180;
-      m_ledBuffer.setHSV(i, hue, 255, 64); // Set the HSV value of the pixel
-    }
-    m_rainbowFirstPixelHue += 3; // Increase the hue by 3 to make the rainbow "move"
-    m_rainbowFirstPixelHue %= 180; // Keep the hue within the range of 0-180
-    m_led.setData(m_ledBuffer); // Set the data of the LED buffer
-    return null;
+    return patternCommand(RAINBOW).withName("Rainbow");
   }
   
   /**
-   * Default command that runs the fire effect.
+   * Command to use as the default command of the LEDs, shown whenever no other LED command is scheduled.
+   * While disabled a yellow scan is shown, otherwise the scan uses the alliance color. Commands bound to triggers, like
+   * the note detection, require this subsystem and therefore override it while they run.
    * 
    * @return The Command object representing the default command.
    */
-  public Command getDefaultCommand() {
-    return null;
+  public Command defaultEffect() {
+    LEDPattern disabled = scanPattern(60, 255, 255);
+    LEDPattern blue = scanPattern(120, 255, 255);
+    LEDPattern red = scanPattern(0, 255, 255);
+    return new FunctionalCommand(() -> m_nextFrameTime = 0,
+                                 () -> {
+                                   if (DriverStation.isDisabled()) {
+                                     renderFrame(disabled);
+                                   } else {
+                                     renderFrame(FieldTargets.isRedAlliance() ? red : blue);
+                                   }
+                                 },
+                                 interrupted -> {},
+                                 () -> false,
+                                 this).ignoringDisable(true).withName("DefaultEffect");
+  }
+
+  /**
+   * Creates the scan pattern, a dim background with a bright spot layered on top.
+   *
+   * @param hue   the hue value for the LEDs
+   * @param sat   the saturation for the LEDs
+   * @param value the value (brightness) of the spot
+   * @return the scan pattern
+   */
+  private static LEDPattern scanPattern(int hue, int sat, int value) {
+    return solidPattern(hue, sat, (int) (value * 0.25)).overlay(scanSpotPattern(hue, sat, value));
   }
 }
   
@@ -0,0 +1,326 @@
+package frc.robot.subsystems.Vision;
+
+import edu.wpi.first.apriltag.AprilTag;
+import edu.wpi.first.apriltag.AprilTagFieldLayout;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Pose3d;
+import edu.wpi.first.math.geometry.Rotation3d;
+import edu.wpi.first.math.geometry.Transform3d;
+import edu.wpi.first.math.geometry.Translation3d;
+import edu.wpi.first.math.util.Units;
+import edu.wpi.first.wpilibj.Timer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.photonvision.simulation.PhotonCameraSim;
+import org.photonvision.simulation.SimCameraProperties;
+import org.photonvision.targeting.MultiTargetPNPResult;
+import org.photonvision.targeting.PNPResult;
+import org.photonvision.targeting.PhotonPipelineResult;
+import org.photonvision.targeting.PhotonTrackedTarget;
+import org.photonvision.targeting.TargetCorner;
+
+/**
+ * Cheap stand in for {@link org.photonvision.simulation.VisionSystemSim}. Instead of projecting every tag through the
+ * camera model and solving PnP with OpenCV, the visible tags are found with pinhole camera math and the camera to tag
+ * transforms are taken straight from the field, with Gaussian noise growing with the distance to the tags. The results
+ * are published at a fixed rate through each camera's {@link PhotonCameraSim}, so the rest of the vision pipeline is
+ * unchanged.
+ */
+public class AnalyticalVisionSim
+{
+
+  /**
+   * Default distance in meters beyond which tags are not detected.
+   */
+  public static final  double MAX_DISTANCE    = 6;
+  /**
+   * Default standard deviation in meters of the camera pose noise per meter of distance to the tags.
+   */
+  public static final  double NOISE_PER_METER = 0.01;
+  /**
+   * Default minimum area of a tag in percent of the image before it is detected.
+   */
+  public static final  double MIN_AREA        = 0.01;
+  /**
+   * Side length of the 2024 AprilTags in meters.
+   */
+  private static final double TAG_SIZE        = Units.inchesToMeters(6.5);
+  /**
+   * Reported ambiguity of single tag targets, below the {@link VisionFilter} limit.
+   */
+  private static final double AMBIGUITY       = 0.05;
+
+  /**
+   * Tags which can be detected.
+   */
+  private final AprilTagFieldLayout layout;
+  /**
+   * Simulated cameras.
+   */
+  private final List<SimCamera>     cameras    = new ArrayList<>();
+  /**
+   * Corners of a tag relative to its center, in the same order as PhotonVision reports them.
+   */
+  private final Transform3d[]       tagCorners;
+  /**
+   * Seconds between published results.
+   */
+  private final double              period;
+  /**
+   * Distance beyond which tags are not detected.
+   */
+  private final double              maxDistance;
+  /**
+   * Camera pose noise per meter of distance.
+   */
+  private final double              noisePerMeter;
+  /**
+   * Noise source.
+   */
+  private final Random              random     = new Random();
+  /**
+   * Timestamp of the last published results.
+   */
+  private       double              lastUpdate = Double.NEGATIVE_INFINITY;
+
+  /**
+   * Create an analytical vision simulation with the default limits.
+   *
+   * @param layout Tags which can be detected.
+   * @param rate   Rate in Hz at which results are published.
+   */
+  public AnalyticalVisionSim(AprilTagFieldLayout layout, double rate)
+  {
+    this(layout, rate, MAX_DISTANCE, NOISE_PER_METER);
+  }
+
+  /**
+   * Create an analytical vision simulation.
+   *
+   * @param layout        Tags which can be detected.
+   * @param rate          Rate in Hz at which results are published.
+   * @param maxDistance   Distance in meters beyond which tags are not detected.
+   * @param noisePerMeter Standard deviation in meters of the camera pose noise per meter of distance to the tags.
+   */
+  public AnalyticalVisionSim(AprilTagFieldLayout layout, double rate, double maxDistance, double noisePerMeter)
+  {
+    this.layout = layout;
+    this.period = 1.0 / rate;
+    this.maxDistance = maxDistance;
+    this.noisePerMeter = noisePerMeter;
+
+    double half = TAG_SIZE / 2;
+    tagCorners = new Transform3d[]{
+        new Transform3d(new Translation3d(0, half, -half), new Rotation3d()),
+        new Transform3d(new Translation3d(0, -half, -half), new Rotation3d()),
+        new Transform3d(new Translation3d(0, -half, half), new Rotation3d()),
+        new Transform3d(new Translation3d(0, half, half), new Rotation3d())};
+  }
+
+  /**
+   * Add a camera, like {@link org.photonvision.simulation.VisionSystemSim#addCamera(PhotonCameraSim, Transform3d)}.
+   *
+   * @param cameraSim     Camera to publish the results through, its properties define the field of view.
+   * @param robotToCamera Transform from the center of the robot to the camera.
+   */
+  public void addCamera(PhotonCameraSim cameraSim, Transform3d robotToCamera)
+  {
+    cameras.add(new SimCamera(cameraSim, robotToCamera));
+  }
+
+  /**
+   * Publish new results for every camera if the period has passed.
+   *
+   * @param robotPose Simulated pose of the robot.
+   */
+  public void update(Pose2d robotPose)
+  {
+    double now = Timer.getFPGATimestamp();
+    if (now - lastUpdate < period)
+    {
+      return;
+    }
+    lastUpdate = now;
+
+    Pose3d robotPose3d = new Pose3d(robotPose);
+    for (SimCamera camera : cameras)
+    {
+      camera.cameraSim.submitProcessedFrame(process(camera, robotPose3d.transformBy(camera.robotToCamera)));
+    }
+  }
+
+  /**
+   * Build the result a camera would see from a pose.
+   *
+   * @param camera     Simulated camera.
+   * @param cameraPose Pose of the camera on the field.
+   * @return Result of the camera.
+   */
+  private PhotonPipelineResult process(SimCamera camera, Pose3d cameraPose)
+  {
+    List<AprilTag> visible  = new ArrayList<>();
+    double         distance = 0;
+    for (AprilTag tag : layout.getTags())
+    {
+      if (isVisible(camera, cameraPose, tag.pose))
+      {
+        visible.add(tag);
+        distance += cameraPose.getTranslation().getDistance(tag.pose.getTranslation());
+      }
+    }
+    if (visible.isEmpty())
+    {
+      return new PhotonPipelineResult(camera.latencyMs, new ArrayList<>());
+    }
+
+    // One noisy camera pose per frame, as PnP would give for the whole frame.
+    double stdDev = noisePerMeter * distance / visible.size();
+    Pose3d noisyPose = cameraPose.transformBy(
+        new Transform3d(new Translation3d(random.nextGaussian() * stdDev,
+                                          random.nextGaussian() * stdDev,
+                                          random.nextGaussian() * stdDev),
+                        new Rotation3d(0, 0, random.nextGaussian() * stdDev / 2)));
+
+    List<PhotonTrackedTarget> targets = new ArrayList<>(visible.size());
+    List<Integer>             ids     = new ArrayList<>(visible.size());
+    for (AprilTag tag : visible)
+    {
+      targets.add(target(camera, cameraPose, noisyPose, tag));
+      ids.add(tag.ID);
+    }
+
+    MultiTargetPNPResult multiTag = new MultiTargetPNPResult();
+    if (visible.size() > 1)
+    {
+      multiTag = new MultiTargetPNPResult(new PNPResult(new Transform3d(new Pose3d(), noisyPose), 0), ids);
+    }
+    return new PhotonPipelineResult(camera.latencyMs, targets, multiTag);
+  }
+
+  /**
+   * Check whether a tag is in front of the camera, facing it, within its field of view and close enough.
+   *
+   * @param camera     Simulated camera.
+   * @param cameraPose Pose of the camera on the field.
+   * @param tagPose    Pose of the tag on the field.
+   * @return Whether the tag can be detected.
+   */
+  private boolean isVisible(SimCamera camera, Pose3d cameraPose, Pose3d tagPose)
+  {
+    Translation3d cameraToTag = tagPose.relativeTo(cameraPose).getTranslation();
+    if (cameraToTag.getX() <= 0 || cameraToTag.getNorm() > maxDistance)
+    {
+      return false;
+    }
+    if (Math.abs(Math.atan2(cameraToTag.getY(), cameraToTag.getX())) > camera.horizontalFov / 2 ||
+        Math.abs(Math.atan2(cameraToTag.getZ(), cameraToTag.getX())) > camera.verticalFov / 2)
+    {
+      return false;
+    }
+    // The tag faces along its X axis, so the camera must be in front of it.
+    if (cameraPose.relativeTo(tagPose).getX() <= 0)
+    {
+      return false;
+    }
+    return area(project(camera, cameraPose, tagPose)) / camera.imageArea * 100 >= MIN_AREA;
+  }
+
+  /**
+   * Build the tracked target of a visible tag.
+   *
+   * @param camera     Simulated camera.
+   * @param cameraPose Pose of the camera on the field.
+   * @param noisyPose  Pose of the camera with noise, used for the transform to the tag.
+   * @param tag        Visible tag.
+   * @return Tracked target.
+   */
+  private PhotonTrackedTarget target(SimCamera camera, Pose3d cameraPose, Pose3d noisyPose, AprilTag tag)
+  {
+    Translation3d      cameraToTag = tag.pose.relativeTo(cameraPose).getTranslation();
+    List<TargetCorner> corners     = project(camera, cameraPose, tag.pose);
+    Transform3d        best        = new Transform3d(noisyPose, tag.pose);
+    return new PhotonTrackedTarget(-Math.toDegrees(Math.atan2(cameraToTag.getY(), cameraToTag.getX())),
+                                   Math.toDegrees(Math.atan2(cameraToTag.getZ(),
+                                                             Math.hypot(cameraToTag.getX(), cameraToTag.getY()))),
+                                   area(corners) / camera.imageArea * 100,
+                                   0,
+                                   tag.ID,
+                                   best,
+                                   best,
+                                   AMBIGUITY,
+                                   corners,
+                                   corners);
+  }
+
+  /**
+   * Project the corners of a tag into the image with a pinhole camera model.
+   *
+   * @param camera     Simulated camera.
+   * @param cameraPose Pose of the camera on the field.
+   * @param tagPose    Pose of the tag on the field.
+   * @return Pixel coordinates of the corners.
+   */
+  private List<TargetCorner> project(SimCamera camera, Pose3d cameraPose, Pose3d tagPose)
+  {
+    List<TargetCorner> corners = new ArrayList<>(tagCorners.length);
+    for (Transform3d corner : tagCorners)
+    {
+      Translation3d point = tagPose.transformBy(corner).relativeTo(cameraPose).getTranslation();
+      corners.add(new TargetCorner(camera.centerX - camera.focalX * point.getY() / point.getX(),
+                                   camera.centerY - camera.focalY * point.getZ() / point.getX()));
+    }
+    return corners;
+  }
+
+  /**
+   * Area of a polygon.
+   *
+   * @param corners Corners of the polygon in order.
+   * @return Area in square pixels.
+   */
+  private static double area(List<TargetCorner> corners)
+  {
+    double area = 0;
+    for (int i = 0; i < corners.size(); i++)
+    {
+      TargetCorner a = corners.get(i);
+      TargetCorner b = corners.get((i + 1) % corners.size());
+      area += a.x * b.y - b.x * a.y;
+    }
+    return Math.abs(area) / 2;
+  }
+
+  /**
+   * Camera added to the simulation with its pinhole model.
+   */
+  private static final class SimCamera
+  {
+
+    private final PhotonCameraSim cameraSim;
+    private final Transform3d     robotToCamera;
+    private final double          latencyMs;
+    private final double          horizontalFov;
+    private final double          verticalFov;
+    private final double          imageArea;
+    private final double          centerX;
+    private final double          centerY;
+    private final double          focalX;
+    private final double          focalY;
+
+    private SimCamera(PhotonCameraSim cameraSim, Transform3d robotToCamera)
+    {
+      SimCameraProperties prop = cameraSim.prop;
+      this.cameraSim = cameraSim;
+      this.robotToCamera = robotToCamera;
+      latencyMs = prop.getAvgLatencyMs();
+      horizontalFov = prop.getHorizFOV().getRadians();
+      verticalFov = prop.getVertFOV().getRadians();
+      imageArea = prop.getResWidth() * prop.getResHeight();
+      centerX = prop.getResWidth() / 2.0;
+      centerY = prop.getResHeight() / 2.0;
+      focalX = centerX / Math.tan(horizontalFov / 2);
+      focalY = centerY / Math.tan(verticalFov / 2);
+    }
+  }
+}
@@ -1,26 +1,29 @@
 package frc.robot.subsystems.Vision;
 
-import edu.wpi.first.apriltag.AprilTagFieldLayout;
-import edu.wpi.first.apriltag.AprilTagFields;
 import edu.wpi.first.math.Matrix;
 import edu.wpi.first.math.VecBuilder;
 import edu.wpi.first.math.geometry.Pose2d;
-import edu.wpi.first.math.geometry.Pose3d;
 import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.geometry.Rotation3d;
 import edu.wpi.first.math.geometry.Transform2d;
 import edu.wpi.first.math.geometry.Transform3d;
 import edu.wpi.first.math.geometry.Translation3d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
 import edu.wpi.first.math.numbers.N1;
 import edu.wpi.first.math.numbers.N3;
 import edu.wpi.first.math.util.Units;
+import edu.wpi.first.wpilibj.Filesystem;
+import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj.smartdashboard.Field2d;
+import frc.robot.Constants.VisionConstants;
 import frc.robot.Robot;
+import frc.robot.util.AutoSimRunner;
+import frc.robot.util.DataLogger;
 import java.awt.Desktop;
+import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.function.Supplier;
@@ -47,29 +50,53 @@ public class FiducialVision
 {
 
   /**
-   * April Tag Field Layout of the year.
+   * Photon Vision Simulation
    */
-  public static final AprilTagFieldLayout fieldLayout                     = AprilTagFieldLayout.loadField(
-      AprilTagFields.k2024Crescendo);
+  public              VisionSystemSim      visionSim;
   /**
-   * Photon Vision Simulation
+   * Analytical vision simulation, used instead of {@link #visionSim} at {@link SimFidelity#ANALYTICAL}.
+   */
+  private             AnalyticalVisionSim  analyticalSim;
+  /**
+   * Fidelity of the camera simulation.
+   */
+  private final       SimFidelity          simFidelity    = SimFidelity.get();
+  /**
+   * Standard deviation and rejection math, shared with the log replay.
+   */
+  private final       VisionFilter         visionFilter   = new VisionFilter();
+  /**
+   * Outlier filters every estimate has to pass before it is used.
    */
-  public              VisionSystemSim     visionSim;
+  private final       VisionFilterChain    filterChain    = VisionFilterChain.standard(visionFilter, FieldLayout.get());
   /**
-   * Count of times that the odom thinks we're more than 10meters away from the april tag.
+   * Combines simultaneous measurements from all cameras before they reach the pose estimator.
    */
-  private             double              longDistangePoseEstimationCount = 0;
+  private final       VisionFusion         visionFusion   = new VisionFusion(VisionWorker.QUEUE_CAPACITY);
   /**
    * Current pose from the pose estimator using wheel odometry.
    */
-  private             Supplier<Pose2d>    currentPose;
+  private             Supplier<Pose2d>     currentPose;
   /**
    * Photon Vision camera properties simulation.
    */
   /**
    * Field from {@link swervelib.SwerveDrive#field}
    */
-  private             Field2d             field2d;
+  private             Field2d              field2d;
+  /**
+   * Background thread processing camera results.
+   */
+  private final       VisionWorker         visionWorker;
+  /**
+   * Speed of the robot in meters per second, written by the main loop for the {@link VisionWorker} thread.
+   */
+  private volatile    double               robotSpeed;
+  /**
+   * Publisher of the tracked targets and estimates on the field, null when {@link VisionConstants#PUBLISH_FIELD} is
+   * off.
+   */
+  private final       VisionFieldPublisher fieldPublisher;
 
   /**
    * Constructor for the Vision class.
@@ -81,19 +108,34 @@ public class FiducialVision
   {
     this.currentPose = currentPose;
     this.field2d = field;
+    fieldPublisher = VisionConstants.PUBLISH_FIELD ? new VisionFieldPublisher(field) : null;
 
     if (Robot.isSimulation())
     {
-      visionSim = new VisionSystemSim("Vision");
-      visionSim.addAprilTags(fieldLayout);
-
-      for (Cameras c : Cameras.values())
+      if (simFidelity == SimFidelity.ANALYTICAL)
       {
-        c.addToVisionSim(visionSim);
+        analyticalSim = new AnalyticalVisionSim(FieldLayout.get(), VisionConstants.ANALYTICAL_SIM_RATE);
+        for (Cameras c : Cameras.values())
+        {
+          c.addToVisionSim(analyticalSim);
+        }
+      } else
+      {
+        visionSim = new VisionSystemSim("Vision");
+        visionSim.addAprilTags(FieldLayout.get());
+
+        for (Cameras c : Cameras.values())
+        {
+          c.addToVisionSim(visionSim);
+        }
       }
 
-      openSimCameraViews();
+      if (simFidelity == SimFidelity.RASTER && !AutoSimRunner.isEnabled())
+      {
+        openSimCameraViews();
+      }
     }
+    visionWorker = new VisionWorker(this::processResult);
   }
 
   /**
@@ -106,60 +148,115 @@ public class FiducialVision
    */
   public static Pose2d getAprilTagPose(int aprilTag, Transform2d robotOffset)
   {
-    Optional<Pose3d> aprilTagPose3d = fieldLayout.getTagPose(aprilTag);
-    if (aprilTagPose3d.isPresent())
+    Pose2d aprilTagPose = FieldLayout.getTagPose2d(aprilTag);
+    if (aprilTagPose != null)
     {
-      return aprilTagPose3d.get().toPose2d().transformBy(robotOffset);
+      return aprilTagPose.transformBy(robotOffset);
     } else
     {
-      throw new RuntimeException("Cannot get AprilTag " + aprilTag + " from field " + fieldLayout.toString());
+      throw new RuntimeException("Cannot get AprilTag " + aprilTag + " from field " + FieldLayout.get().toString());
     }
 
   }
 
   /**
-   * Update the pose estimation inside of {@link SwerveDrive} with all of the given poses.
+   * Update the pose estimation inside of {@link SwerveDrive} with all of the measurements processed by the
+   * {@link VisionWorker} since the last call. Estimates are checked by the {@link VisionFilterChain} and the accepted
+   * ones fused across cameras by {@link VisionFusion}. The latest measurement of each camera is cached for every other
+   * consumer.
    *
    * @param swerveDrive {@link SwerveDrive} instance.
    */
   public void updatePoseEstimation(SwerveDrive swerveDrive)
   {
-    if (Robot.isReal())
+    if (Robot.isSimulation())
+    {
+      if (analyticalSim != null)
+      {
+        analyticalSim.update(swerveDrive.getPose());
+      } else
+      {
+        visionSim.update(swerveDrive.getPose());
+      }
+    }
+    double            now           = Timer.getFPGATimestamp();
+    Pose2d            robotPose     = swerveDrive.getPose();
+    ChassisSpeeds     fieldVelocity = swerveDrive.getFieldVelocity();
+    robotSpeed = Math.hypot(fieldVelocity.vxMetersPerSecond, fieldVelocity.vyMetersPerSecond);
+    VisionMeasurement measurement;
+    while ((measurement = visionWorker.getQueue().poll()) != null)
     {
-      for (Cameras camera : Cameras.values())
+      Cameras camera = measurement.camera;
+      camera.latestResult = measurement.result;
+      if (fieldPublisher != null)
+      {
+        fieldPublisher.setResult(camera, measurement.result);
+      }
+      camera.estimatedRobotPose = Optional.empty();
+      camera.curStdDevs = measurement.stdDevs;
+
+      if (measurement.estimate != null)
       {
-        Optional<EstimatedRobotPose> poseEst = getEstimatedGlobalPose(camera);
-        if (poseEst.isPresent())
+        var    pose        = measurement.estimate;
+        Pose2d robotPose2d = pose.estimatedPose.toPose2d();
+        // Every estimate is logged, rejected or not, so the filters can be tuned with the log replay.
+        camera.log.log(pose.estimatedPose,
+                       pose.timestampSeconds,
+                       measurement.stdDevs,
+                       VisionFilter.bestAmbiguity(pose.targetsUsed),
+                       pose.targetsUsed);
+        if (filterChain.test(camera.ordinal(), pose, robotPose, fieldVelocity))
         {
-          var pose = poseEst.get();
-          swerveDrive.addVisionMeasurement(pose.estimatedPose.toPose2d(),
-                                           pose.timestampSeconds,
-                                           getEstimationStdDevs(camera));
+          camera.estimatedRobotPose = Optional.of(pose);
+          if (fieldPublisher != null)
+          {
+            fieldPublisher.setEstimate(camera, robotPose2d);
+          }
+          camera.latencyAlert.set(visionFusion.isStale(pose.timestampSeconds, now));
+          visionFusion.add(camera.ordinal(), robotPose2d, pose.timestampSeconds, measurement.stdDevs, now);
         }
       }
+    }
+    filterChain.updateTelemetry();
+    if (Robot.isReal())
+    {
+      visionFusion.fuse(swerveDrive::addVisionMeasurement);
     } else
     {
-      visionSim.update(swerveDrive.getPose());
+      visionFusion.clear();
     }
   }
 
   /**
-   * Generates the estimated robot pose. Returns empty if:
+   * Run the pose estimator and standard deviation math on a new camera result. Called from the {@link VisionWorker}
+   * thread.
+   *
+   * @param camera Camera the result came from.
+   * @param result New result from the camera.
+   * @return The processed {@link VisionMeasurement}.
+   */
+  VisionMeasurement processResult(Cameras camera, PhotonPipelineResult result)
+  {
+    Optional<EstimatedRobotPose> poseEst = camera.poseEstimator.update(result);
+    return new VisionMeasurement(camera,
+                                 result,
+                                 poseEst.orElse(null),
+                                 calculateEstimationStdDevs(camera, poseEst, result.getTargets()));
+  }
+
+  /**
+   * Get the estimated robot pose computed from the latest ingested result of the camera. Returns empty if:
    * <ul>
    *  <li> No Pose Estimates could be generated</li>
-   * <li> The generated pose estimate was considered not accurate</li>
+   * <li> The generated pose estimate was rejected by the {@link VisionFilterChain}</li>
    * </ul>
    *
+   * @param camera Camera to get the estimate from.
    * @return an {@link EstimatedRobotPose} with an estimated pose, timestamp, and targets used to create the estimate
    */
   public Optional<EstimatedRobotPose> getEstimatedGlobalPose(Cameras camera)
   {
-    // Alternative method if you want to use both a pose filter and standard deviations based on distance + tags seen.
-    // Optional<EstimatedRobotPose> poseEst = filterPose(camera.poseEstimator.update());
-    Optional<EstimatedRobotPose> poseEst = camera.poseEstimator.update();
-    poseEst.ifPresent(estimatedRobotPose -> field2d.getObject(camera + " est pose")
-                                                   .setPose(estimatedRobotPose.estimatedPose.toPose2d()));
-    return poseEst;
+    return camera.estimatedRobotPose;
   }
 
   /**
@@ -168,104 +265,67 @@ public class FiducialVision
    * when there are targets visible.
    *
    * @param camera Desired camera to get the standard deviation of the estimated pose.
+   * @return Standard deviations computed when the latest result was ingested.
    */
   public Matrix<N3, N1> getEstimationStdDevs(Cameras camera)
   {
-    var    poseEst    = getEstimatedGlobalPose(camera);
-    var    estStdDevs = camera.singleTagStdDevs;
-    var    targets    = getLatestResult(camera).getTargets();
-    int    numTags    = 0;
-    double avgDist    = 0;
+    return camera.curStdDevs;
+  }
+
+  /**
+   * Calculate the standard deviations of an estimated pose from the camera's {@link StdDevModel}, falling back to
+   * scaling by the number of tags seen and their average distance where the model was not calibrated.
+   *
+   * @param camera  Camera the estimate came from.
+   * @param poseEst Estimated pose from the camera's result.
+   * @param targets Targets seen in the camera's result.
+   * @return Standard deviations of the estimated pose.
+   */
+  private Matrix<N3, N1> calculateEstimationStdDevs(Cameras camera, Optional<EstimatedRobotPose> poseEst,
+                                                    List<PhotonTrackedTarget> targets)
+  {
+    int    numTags  = 0;
+    double avgDist  = 0;
+    double avgAngle = 0;
     for (var tgt : targets)
     {
-      var tagPose = camera.poseEstimator.getFieldTags().getTagPose(tgt.getFiducialId());
-      if (tagPose.isEmpty())
+      var tagPose = FieldLayout.getTagPose2d(tgt.getFiducialId());
+      if (tagPose == null)
       {
         continue;
       }
       numTags++;
       if (poseEst.isPresent())
       {
-        avgDist += PhotonUtils.getDistanceToPose(poseEst.get().estimatedPose.toPose2d(), tagPose.get().toPose2d());
+        Pose2d estimate = poseEst.get().estimatedPose.toPose2d();
+        avgDist += PhotonUtils.getDistanceToPose(estimate, tagPose);
+        avgAngle += StdDevModel.viewingAngle(tagPose, estimate);
       }
     }
-    if (numTags == 0)
-    {
-      return estStdDevs;
-    }
-    avgDist /= numTags;
-    // Decrease std devs if multiple targets are visible
-    if (numTags > 1)
+    if (numTags > 0)
     {
-      estStdDevs = camera.multiTagStdDevs;
+      avgDist /= numTags;
+      avgAngle /= numTags;
     }
-    // Increase std devs based on (average) distance
-    if (numTags == 1 && avgDist > 4)
-    {
-      estStdDevs = VecBuilder.fill(Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE);
-    } else
+    // Far single tag estimates are rejected before the lookup so a calibrated cell can not let them through.
+    Matrix<N3, N1> calibrated = visionFilter.acceptDistance(numTags, avgDist)
+                                ? camera.stdDevModel.get(numTags, avgDist, avgAngle, robotSpeed) : null;
+    if (calibrated != null)
     {
-      estStdDevs = estStdDevs.times(1 + (avgDist * avgDist / 30));
+      return calibrated;
     }
-
-    return estStdDevs;
+    return visionFilter.stdDevs(numTags, avgDist, camera.singleTagStdDevs, camera.multiTagStdDevs);
   }
 
   /**
-   * Filter pose via the ambiguity and find best estimate between all of the camera's throwing out distances more than
-   * 10m for a short amount of time.
-   *
-   * @param pose Estimated robot pose.
-   * @return Could be empty if there isn't a good reading.
-   */
-  private Optional<EstimatedRobotPose> filterPose(Optional<EstimatedRobotPose> pose)
-  {
-    if (pose.isPresent())
-    {
-      double bestTargetAmbiguity = 1; // 1 is max ambiguity
-      for (PhotonTrackedTarget target : pose.get().targetsUsed)
-      {
-        double ambiguity = target.getPoseAmbiguity();
-        if (ambiguity != -1 && ambiguity < bestTargetAmbiguity)
-        {
-          bestTargetAmbiguity = ambiguity;
-        }
-      }
-      //ambiguity to high dont use estimate
-      if (bestTargetAmbiguity > 0.3)
-      {
-        return Optional.empty();
-      }
-
-      //est pose is very far from recorded robot pose
-      if (PhotonUtils.getDistanceToPose(currentPose.get(), pose.get().estimatedPose.toPose2d()) > 1)
-      {
-        longDistangePoseEstimationCount++;
-
-        //if it calculates that were 10 meter away for more than 10 times in a row its probably right
-        if (longDistangePoseEstimationCount < 10)
-        {
-          return Optional.empty();
-        }
-      } else
-      {
-        longDistangePoseEstimationCount = 0;
-      }
-      return pose;
-    }
-    return Optional.empty();
-  }
-
-  /**
-   * Get the latest result from a given Camera.
+   * Get the latest result of a given Camera drained by {@link #updatePoseEstimation(SwerveDrive)}.
    *
    * @param camera Given camera to take the result from.
    * @return Photon result from sim or a real camera.
    */
   public PhotonPipelineResult getLatestResult(Cameras camera)
   {
-
-    return Robot.isReal() ? camera.camera.getLatestResult() : camera.cameraSim.getCamera().getLatestResult();
+    return camera.latestResult;
   }
 
   /**
@@ -276,8 +336,8 @@ public class FiducialVision
    */
   public double getDistanceFromAprilTag(int id)
   {
-    Optional<Pose3d> tag = fieldLayout.getTagPose(id);
-    return tag.map(pose3d -> PhotonUtils.getDistanceToPose(currentPose.get(), pose3d.toPose2d())).orElse(-1.0);
+    Pose2d tag = FieldLayout.getTagPose2d(id);
+    return tag != null ? PhotonUtils.getDistanceToPose(currentPose.get(), tag) : -1.0;
   }
 
   /**
@@ -307,7 +367,7 @@ public class FiducialVision
   /**
    * Vision simulation.
    *
-   * @return Vision Simulation
+   * @return Vision Simulation, null at {@link SimFidelity#ANALYTICAL}.
    */
   public VisionSystemSim getVisionSim()
   {
@@ -334,31 +394,14 @@ public class FiducialVision
   }
 
   /**
-   * Update the {@link Field2d} to include tracked targets/
+   * Update the {@link Field2d} to include tracked targets and estimates, see {@link VisionFieldPublisher}.
    */
   public void updateVisionField()
   {
-
-    List<PhotonTrackedTarget> targets = new ArrayList<PhotonTrackedTarget>();
-    for (Cameras c : Cameras.values())
+    if (fieldPublisher != null)
     {
-      if (getLatestResult(c).hasTargets())
-      {
-        targets.addAll(getLatestResult(c).targets);
-      }
+      fieldPublisher.update();
     }
-
-    List<Pose2d> poses = new ArrayList<>();
-    for (PhotonTrackedTarget target : targets)
-    {
-      if (fieldLayout.getTagPose(target.getFiducialId()).isPresent())
-      {
-        Pose2d targetPose = fieldLayout.getTagPose(target.getFiducialId()).get().toPose2d();
-        poses.add(targetPose);
-      }
-    }
-
-    field2d.getObject("tracked targets").setPoses(poses);
   }
 
   /**
@@ -407,6 +450,10 @@ public class FiducialVision
      * Latency alert to use when high latency is detected.
      */
     public final  Alert               latencyAlert;
+    /**
+     * Data log entries of the camera's measurements.
+     */
+    public final  DataLogger.VisionChannel log;
     /**
      * Camera instance for comms.
      */
@@ -417,6 +464,10 @@ public class FiducialVision
     public final  PhotonPoseEstimator poseEstimator;
     public final  Matrix<N3, N1>      singleTagStdDevs;
     public final  Matrix<N3, N1>      multiTagStdDevs;
+    /**
+     * Standard deviations fitted from logs, loaded from {@code deploy/vision/<name>.csv}.
+     */
+    public final  StdDevModel         stdDevModel;
     /**
      * Transform of the camera rotation and translation relative to the center of the robot
      */
@@ -425,10 +476,22 @@ public class FiducialVision
      * Simulated camera instance which only exists during simulations.
      */
     public        PhotonCameraSim     cameraSim;
+    /**
+     * Last {@link PhotonPipelineResult} drained from the {@link VisionWorker} for this camera.
+     */
+    private       PhotonPipelineResult         latestResult       = new PhotonPipelineResult();
+    /**
+     * Estimated pose computed from {@link #latestResult}.
+     */
+    private       Optional<EstimatedRobotPose> estimatedRobotPose = Optional.empty();
+    /**
+     * Standard deviations of {@link #estimatedRobotPose}.
+     */
+    private       Matrix<N3, N1>               curStdDevs;
 
     /**
      * Construct a Photon Camera class with help. Standard deviations are fake values, experiment and determine
-     * estimation noise on an actual robot.
+     * estimation noise on an actual robot, or calibrate a {@link StdDevModel} from match logs.
      *
      * @param name                  Name of the PhotonVision camera found in the PV UI.
      * @param robotToCamRotation    {@link Rotation3d} of the camera.
@@ -446,7 +509,7 @@ public class FiducialVision
       // https://docs.wpilib.org/en/stable/docs/software/basic-programming/coordinate-system.html
       robotToCamTransform = new Transform3d(robotToCamTranslation, robotToCamRotation);
 
-      poseEstimator = new PhotonPoseEstimator(FiducialVision.fieldLayout,
+      poseEstimator = new PhotonPoseEstimator(FieldLayout.get(),
                                               PoseStrategy.MULTI_TAG_PNP_ON_COPROCESSOR,
                                               camera,
                                               robotToCamTransform);
@@ -454,6 +517,9 @@ public class FiducialVision
 
       this.singleTagStdDevs = singleTagStdDevs;
       this.multiTagStdDevs = multiTagStdDevsMatrix;
+      log = DataLogger.visionChannel(name, singleTagStdDevs, multiTagStdDevsMatrix);
+      stdDevModel = StdDevModel.load(new File(Filesystem.getDeployDirectory(), "vision/" + name + ".csv"));
+      this.curStdDevs = singleTagStdDevs;
 
       if (Robot.isSimulation())
       {
@@ -469,7 +535,11 @@ public class FiducialVision
         cameraProp.setLatencyStdDevMs(5);
 
         cameraSim = new PhotonCameraSim(camera, cameraProp);
-        cameraSim.enableDrawWireframe(true);
+        // Only render the streams when someone is going to look at them.
+        boolean raster = SimFidelity.get() == SimFidelity.RASTER && !AutoSimRunner.isEnabled();
+        cameraSim.enableRawStream(raster);
+        cameraSim.enableProcessedStream(raster);
+        cameraSim.enableDrawWireframe(raster);
       }
     }
 
@@ -485,6 +555,19 @@ public class FiducialVision
         systemSim.addCamera(cameraSim, robotToCamTransform);
       }
     }
+
+    /**
+     * Add camera to {@link AnalyticalVisionSim} for simulated photon vision.
+     *
+     * @param systemSim {@link AnalyticalVisionSim} to use.
+     */
+    public void addToVisionSim(AnalyticalVisionSim systemSim)
+    {
+      if (Robot.isSimulation())
+      {
+        systemSim.addCamera(cameraSim, robotToCamTransform);
+      }
+    }
   }
 
 }
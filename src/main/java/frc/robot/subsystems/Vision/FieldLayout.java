@@ -0,0 +1,276 @@
+package frc.robot.subsystems.Vision;
+
+import edu.wpi.first.apriltag.AprilTag;
+import edu.wpi.first.apriltag.AprilTagFieldLayout;
+import edu.wpi.first.apriltag.AprilTagFields;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Pose3d;
+import edu.wpi.first.math.geometry.Quaternion;
+import edu.wpi.first.math.geometry.Rotation3d;
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.Filesystem;
+import frc.robot.Constants.AprilTagConstants;
+import frc.robot.util.StartupTracer;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Single shared {@link AprilTagFieldLayout} of the field selected by {@link AprilTagConstants#FIELD}. The layout is
+ * loaded lazily on first use, from the precompiled binary in {@code deploy/apriltags} when it exists (see the
+ * {@code compileFieldLayout} Gradle task) and from the WPILib JSON resource otherwise. The binary stores a checksum of
+ * the JSON it was compiled from and is ignored when it no longer matches, so a stale binary left in the deploy
+ * directory can not override an updated layout. Tag poses are precomputed into arrays indexed by tag ID.
+ */
+public final class FieldLayout
+{
+
+  /**
+   * Identifies the binary layout format.
+   */
+  private static final int MAGIC   = 0x4154464C; // "ATFL"
+  /**
+   * Version of the binary layout format.
+   */
+  private static final int VERSION = 2;
+
+  private FieldLayout()
+  {
+  }
+
+  /**
+   * Get the AprilTag field layout, loading it on the first call.
+   *
+   * @return The field layout.
+   */
+  public static AprilTagFieldLayout get()
+  {
+    return Holder.layout;
+  }
+
+  /**
+   * Get the pose of an AprilTag.
+   *
+   * @param id AprilTag ID.
+   * @return The tag pose or null if the tag does not exist.
+   */
+  public static Pose3d getTagPose3d(int id)
+  {
+    return id >= 0 && id < Holder.tagPoses3d.length ? Holder.tagPoses3d[id] : null;
+  }
+
+  /**
+   * Get the pose of an AprilTag projected onto the field.
+   *
+   * @param id AprilTag ID.
+   * @return The tag pose or null if the tag does not exist.
+   */
+  public static Pose2d getTagPose2d(int id)
+  {
+    return id >= 0 && id < Holder.tagPoses2d.length ? Holder.tagPoses2d[id] : null;
+  }
+
+  /**
+   * Get the largest AprilTag ID on the field.
+   *
+   * @return Largest tag ID.
+   */
+  public static int getMaxTagId()
+  {
+    return Holder.tagPoses3d.length - 1;
+  }
+
+  /**
+   * Get the precompiled binary file of a field layout.
+   *
+   * @param directory Directory containing the binary layouts.
+   * @param field     Field of the layout.
+   * @return The binary layout file.
+   */
+  private static File getBinaryFile(File directory, AprilTagFields field)
+  {
+    return new File(directory, field.name() + ".bin");
+  }
+
+  /**
+   * Load a field layout, preferring the precompiled binary form.
+   *
+   * @param field Field to load.
+   * @return The field layout.
+   */
+  private static AprilTagFieldLayout load(AprilTagFields field)
+  {
+    File binary = getBinaryFile(new File(Filesystem.getDeployDirectory(), "apriltags"), field);
+    if (binary.isFile())
+    {
+      StartupTracer.begin("FieldLayout binary");
+      try
+      {
+        return readBinary(binary, getSourceChecksum(field));
+      } catch (IOException e)
+      {
+        DriverStation.reportWarning("Failed to read " + binary + ", falling back to JSON: " + e.getMessage(), false);
+      } finally
+      {
+        StartupTracer.end();
+      }
+    }
+    StartupTracer.begin("FieldLayout JSON");
+    try
+    {
+      return AprilTagFieldLayout.loadField(field);
+    } finally
+    {
+      StartupTracer.end();
+    }
+  }
+
+  /**
+   * Checksum of the WPILib JSON resource of a field layout, much cheaper than parsing it.
+   *
+   * @param field Field of the layout.
+   * @return CRC32 of the JSON resource.
+   * @throws IOException If the resource could not be read.
+   */
+  private static long getSourceChecksum(AprilTagFields field) throws IOException
+  {
+    try (InputStream in = AprilTagFieldLayout.class.getResourceAsStream(field.m_resourceFile))
+    {
+      if (in == null)
+      {
+        throw new IOException("Missing field layout resource " + field.m_resourceFile);
+      }
+      CRC32 crc = new CRC32();
+      crc.update(in.readAllBytes());
+      return crc.getValue();
+    }
+  }
+
+  /**
+   * Read a field layout written by {@link #writeBinary(AprilTagFieldLayout, long, File)}.
+   *
+   * @param file     Binary layout file.
+   * @param checksum Checksum of the JSON layout the binary has to be compiled from.
+   * @return The field layout.
+   * @throws IOException If the file could not be read, is not a binary layout or is stale.
+   */
+  private static AprilTagFieldLayout readBinary(File file, long checksum) throws IOException
+  {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+    {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION)
+      {
+        throw new IOException("Unsupported binary field layout");
+      }
+      if (in.readLong() != checksum)
+      {
+        throw new IOException("Binary field layout was compiled from a different JSON layout");
+      }
+      double         fieldLength = in.readDouble();
+      double         fieldWidth  = in.readDouble();
+      int            count       = in.readInt();
+      List<AprilTag> tags        = new ArrayList<>(count);
+      for (int i = 0; i < count; i++)
+      {
+        int id = in.readInt();
+        double x = in.readDouble();
+        double y = in.readDouble();
+        double z = in.readDouble();
+        Quaternion q = new Quaternion(in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble());
+        tags.add(new AprilTag(id, new Pose3d(x, y, z, new Rotation3d(q))));
+      }
+      return new AprilTagFieldLayout(tags, fieldLength, fieldWidth);
+    }
+  }
+
+  /**
+   * Write a field layout in the compact binary form.
+   *
+   * @param layout   Field layout to write.
+   * @param checksum Checksum of the JSON layout it was loaded from.
+   * @param file     Destination file.
+   * @throws IOException If the file could not be written.
+   */
+  private static void writeBinary(AprilTagFieldLayout layout, long checksum, File file) throws IOException
+  {
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file))))
+    {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(checksum);
+      out.writeDouble(layout.getFieldLength());
+      out.writeDouble(layout.getFieldWidth());
+      out.writeInt(layout.getTags().size());
+      for (AprilTag tag : layout.getTags())
+      {
+        Quaternion q = tag.pose.getRotation().getQuaternion();
+        out.writeInt(tag.ID);
+        out.writeDouble(tag.pose.getX());
+        out.writeDouble(tag.pose.getY());
+        out.writeDouble(tag.pose.getZ());
+        out.writeDouble(q.getW());
+        out.writeDouble(q.getX());
+        out.writeDouble(q.getY());
+        out.writeDouble(q.getZ());
+      }
+    }
+  }
+
+  /**
+   * Precompile the configured field layout into the binary form. Run by the {@code compileFieldLayout} Gradle task.
+   *
+   * @param args Output directory, normally {@code src/main/deploy/apriltags}.
+   * @throws IOException If the layout could not be written.
+   */
+  public static void main(String... args) throws IOException
+  {
+    File directory = new File(args[0]);
+    if (!directory.isDirectory() && !directory.mkdirs())
+    {
+      throw new IOException("Could not create " + directory);
+    }
+    File file = getBinaryFile(directory, AprilTagConstants.FIELD);
+    writeBinary(AprilTagFieldLayout.loadField(AprilTagConstants.FIELD),
+                getSourceChecksum(AprilTagConstants.FIELD),
+                file);
+    System.out.println("Wrote " + file);
+  }
+
+  /**
+   * Lazily loaded layout, initialized by the JVM on first access.
+   */
+  private static final class Holder
+  {
+
+    private static final AprilTagFieldLayout layout     = load(AprilTagConstants.FIELD);
+    private static final Pose3d[]            tagPoses3d;
+    private static final Pose2d[]            tagPoses2d;
+
+    static
+    {
+      int maxId = 0;
+      for (AprilTag tag : layout.getTags())
+      {
+        maxId = Math.max(maxId, tag.ID);
+      }
+      tagPoses3d = new Pose3d[maxId + 1];
+      tagPoses2d = new Pose2d[maxId + 1];
+      for (AprilTag tag : layout.getTags())
+      {
+        // Use the layout's poses so they respect its origin.
+        Pose3d pose = layout.getTagPose(tag.ID).get();
+        tagPoses3d[tag.ID] = pose;
+        tagPoses2d[tag.ID] = pose.toPose2d();
+      }
+    }
+  }
+}
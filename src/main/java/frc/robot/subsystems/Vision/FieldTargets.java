@@ -0,0 +1,167 @@
+package frc.robot.subsystems.Vision;
+
+import edu.wpi.first.hal.AllianceStationID;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.wpilibj.DriverStation;
+import frc.robot.Constants.AprilTagConstants;
+
+/**
+ * Cache of the alliance dependent field targets. The AprilTag poses of the speaker, amp and stage are resolved once
+ * when the alliance becomes known or changes, instead of on every call from the teleop hot path. Until the alliance is
+ * reported by the Driver Station the blue alliance targets are used.
+ */
+public final class FieldTargets
+{
+
+  /**
+   * Last alliance station the targets were computed for.
+   */
+  private static AllianceStationID station   = null;
+  /**
+   * Whether the targets are for the red alliance.
+   */
+  private static boolean           red       = false;
+  /**
+   * Speaker AprilTag pose.
+   */
+  private static Pose2d            speakerPose;
+  /**
+   * Amp AprilTag pose.
+   */
+  private static Pose2d            ampPose;
+  /**
+   * Stage AprilTag poses.
+   */
+  private static Pose2d[]          stagePoses = new Pose2d[3];
+
+  static
+  {
+    computeTargets(false);
+  }
+
+  private FieldTargets()
+  {
+  }
+
+  /**
+   * Recompute the targets if the alliance changed. Cheap enough to be called every loop.
+   */
+  public static void update()
+  {
+    AllianceStationID current = DriverStation.getRawAllianceStation();
+    if (current == station)
+    {
+      return;
+    }
+    station = current;
+    switch (current)
+    {
+      case Red1:
+      case Red2:
+      case Red3:
+        computeTargets(true);
+        break;
+      case Blue1:
+      case Blue2:
+      case Blue3:
+        computeTargets(false);
+        break;
+      default:
+        // Alliance unknown, keep the current targets.
+        break;
+    }
+  }
+
+  /**
+   * Resolve the AprilTag IDs and poses of the alliance.
+   *
+   * @param redAlliance Whether to use the red alliance targets.
+   */
+  private static void computeTargets(boolean redAlliance)
+  {
+    red = redAlliance;
+    AprilTagConstants.ampID = redAlliance ? 5 : 6;
+    AprilTagConstants.speakerID = redAlliance ? 4 : 7;
+    AprilTagConstants.stageIDA = redAlliance ? 13 : 14;
+    AprilTagConstants.stageIDB = redAlliance ? 12 : 15;
+    AprilTagConstants.stageIDC = redAlliance ? 11 : 16;
+
+    speakerPose = getSpeakerPose(redAlliance);
+    ampPose = FieldLayout.getTagPose2d(AprilTagConstants.ampID);
+    stagePoses[0] = FieldLayout.getTagPose2d(AprilTagConstants.stageIDA);
+    stagePoses[1] = FieldLayout.getTagPose2d(AprilTagConstants.stageIDB);
+    stagePoses[2] = FieldLayout.getTagPose2d(AprilTagConstants.stageIDC);
+  }
+
+  /**
+   * Whether the targets are for the red alliance.
+   *
+   * @return true if red, false if blue or the alliance is unknown.
+   */
+  public static boolean isRedAlliance()
+  {
+    return red;
+  }
+
+  /**
+   * Get the speaker AprilTag pose of the alliance.
+   *
+   * @return Speaker pose.
+   */
+  public static Pose2d getSpeakerPose()
+  {
+    return speakerPose;
+  }
+
+  /**
+   * Get the speaker AprilTag pose of an alliance, regardless of the current alliance.
+   *
+   * @param redAlliance Whether to get the red alliance speaker.
+   * @return Speaker pose.
+   */
+  public static Pose2d getSpeakerPose(boolean redAlliance)
+  {
+    return FieldLayout.getTagPose2d(redAlliance ? 4 : 7);
+  }
+
+  /**
+   * Get the field X coordinate of the speaker AprilTag.
+   *
+   * @return X in meters.
+   */
+  public static double getSpeakerX()
+  {
+    return speakerPose.getX();
+  }
+
+  /**
+   * Get the field Y coordinate of the speaker AprilTag.
+   *
+   * @return Y in meters.
+   */
+  public static double getSpeakerY()
+  {
+    return speakerPose.getY();
+  }
+
+  /**
+   * Get the amp AprilTag pose of the alliance.
+   *
+   * @return Amp pose.
+   */
+  public static Pose2d getAmpPose()
+  {
+    return ampPose;
+  }
+
+  /**
+   * Get a stage AprilTag pose of the alliance.
+   *
+   * @param index Stage tag index, 0 to 2 for tags A to C.
+   * @return Stage tag pose.
+   */
+  public static Pose2d getStagePose(int index)
+  {
+    return stagePoses[index];
+  }
+}
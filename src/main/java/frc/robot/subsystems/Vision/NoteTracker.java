@@ -0,0 +1,391 @@
+package frc.robot.subsystems.Vision;
+
+import edu.wpi.first.apriltag.AprilTagFieldLayout;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Transform3d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.geometry.Translation3d;
+import edu.wpi.first.wpilibj.smartdashboard.Field2d;
+import edu.wpi.first.wpilibj.smartdashboard.FieldObject2d;
+import frc.robot.util.Telemetry;
+import java.util.ArrayList;
+import java.util.List;
+import org.photonvision.targeting.PhotonPipelineResult;
+import org.photonvision.targeting.PhotonTrackedTarget;
+
+/**
+ * Tracks notes on the field from the object detection camera. Every detected target is projected from its yaw and pitch
+ * onto the carpet, using the camera transform and the robot pose at the time the frame was captured, which gives a
+ * field relative note position independent of how the robot moved since. Detections are associated with existing
+ * tracks by their Mahalanobis distance and each track is smoothed by a Kalman filter, so a note keeps a stable position
+ * and identity across frames instead of jumping with every detection.
+ * <p>
+ * Only used from the main robot loop, tracks are kept in arrays sized to {@link #MAX_TRACKS}.
+ */
+public class NoteTracker
+{
+
+  /**
+   * Height in meters of the center of a note lying on the carpet.
+   */
+  public static final double NOTE_HEIGHT             = 0.025;
+  /**
+   * Distance in meters beyond which detections are ignored, the projection is too sensitive to pitch errors further
+   * away.
+   */
+  public static final double MAX_RANGE               = 6;
+  /**
+   * Standard deviation in meters of a detection per meter of range.
+   */
+  public static final double MEASUREMENT_STD_DEV     = 0.05;
+  /**
+   * Smallest standard deviation in meters of a detection.
+   */
+  public static final double MIN_MEASUREMENT_STD_DEV = 0.03;
+  /**
+   * Variance in square meters per second a track grows by while not seen, notes get pushed around by robots.
+   */
+  public static final double PROCESS_VARIANCE        = 0.05;
+  /**
+   * Squared Mahalanobis distance within which a detection belongs to a track, 99% for two degrees of freedom.
+   */
+  public static final double ASSOCIATION_GATE        = 9.21;
+  /**
+   * Number of detections before a track is reported.
+   */
+  public static final int    MIN_HITS                = 3;
+  /**
+   * Time in seconds after which a track which was not seen is dropped.
+   */
+  public static final double TRACK_TIMEOUT           = 1.0;
+  /**
+   * Distance in meters another note has to be closer by before the best note switches to it.
+   */
+  public static final double SWITCH_MARGIN           = 0.5;
+  /**
+   * Maximum number of tracks.
+   */
+  public static final int    MAX_TRACKS              = 8;
+
+  /**
+   * Transform from the robot to the object detection camera.
+   */
+  private final Transform3d       robotToCamera;
+  /**
+   * Field length in meters, notes outside of the field are not reachable.
+   */
+  private final double            fieldLength;
+  /**
+   * Field width in meters.
+   */
+  private final double            fieldWidth;
+  /**
+   * Track x positions in meters.
+   */
+  private final double[]          x              = new double[MAX_TRACKS];
+  /**
+   * Track y positions in meters.
+   */
+  private final double[]          y              = new double[MAX_TRACKS];
+  /**
+   * Track position variance in square meters, the same for both axes.
+   */
+  private final double[]          variance       = new double[MAX_TRACKS];
+  /**
+   * Timestamp in seconds each track was last seen.
+   */
+  private final double[]          lastSeen       = new double[MAX_TRACKS];
+  /**
+   * Number of detections of each track.
+   */
+  private final int[]             hits           = new int[MAX_TRACKS];
+  /**
+   * Track ids, never reused so the best note can be followed across track removal.
+   */
+  private final long[]            ids            = new long[MAX_TRACKS];
+  /**
+   * Tracks updated by the current frame.
+   */
+  private final boolean[]         updated        = new boolean[MAX_TRACKS];
+  /**
+   * Confirmed tracks on the field.
+   */
+  private final FieldObject2d     fieldObject;
+  /**
+   * Reused list of the confirmed track poses.
+   */
+  private final List<Pose2d>      trackPoses     = new ArrayList<>();
+  /**
+   * Rate limit of the field updates.
+   */
+  private final Telemetry.Channel channel        = Telemetry.channel(Telemetry.Rate.MEDIUM, Telemetry.Level.DEBUG);
+  /**
+   * Number of tracks.
+   */
+  private       int               count;
+  /**
+   * Id of the next track.
+   */
+  private       long              nextId;
+  /**
+   * Id of the track last returned as the best note, -1 when none.
+   */
+  private       long              bestId         = -1;
+  /**
+   * Capture timestamp of the last frame processed.
+   */
+  private       double            lastTimestamp  = -1;
+  /**
+   * Timestamp of the last prediction.
+   */
+  private       double            lastPredict    = -1;
+
+  /**
+   * Create a tracker.
+   *
+   * @param robotToCamera Transform from the robot to the object detection camera.
+   * @param field         Field to publish the confirmed tracks to.
+   */
+  public NoteTracker(Transform3d robotToCamera, Field2d field)
+  {
+    this(robotToCamera, FieldLayout.get(), field);
+  }
+
+  /**
+   * Create a tracker for a field layout.
+   *
+   * @param robotToCamera Transform from the robot to the object detection camera.
+   * @param layout        Layout of the field the notes are on.
+   * @param field         Field to publish the confirmed tracks to.
+   */
+  public NoteTracker(Transform3d robotToCamera, AprilTagFieldLayout layout, Field2d field)
+  {
+    this.robotToCamera = robotToCamera;
+    fieldLength = layout.getFieldLength();
+    fieldWidth = layout.getFieldWidth();
+    fieldObject = field.getObject("notes");
+  }
+
+  /**
+   * Add the detections of a frame, should be called once per loop. Frames which were already processed are ignored.
+   *
+   * @param result    Latest result of the object detection camera.
+   * @param robotPose Robot pose when the frame was captured.
+   * @param now       Current timestamp in seconds.
+   */
+  public void update(PhotonPipelineResult result, Pose2d robotPose, double now)
+  {
+    predict(now);
+    double timestamp = result.getTimestampSeconds();
+    if (timestamp == lastTimestamp)
+    {
+      return;
+    }
+    lastTimestamp = timestamp;
+
+    for (int i = 0; i < count; i++)
+    {
+      updated[i] = false;
+    }
+    double cos = robotPose.getRotation().getCos();
+    double sin = robotPose.getRotation().getSin();
+    for (PhotonTrackedTarget target : result.getTargets())
+    {
+      // Ray through the target in the camera frame, PhotonVision yaw is positive to the right and pitch positive up.
+      Translation3d ray = new Translation3d(1,
+                                            -Math.tan(Math.toRadians(target.getYaw())),
+                                            Math.tan(Math.toRadians(target.getPitch())))
+          .rotateBy(robotToCamera.getRotation());
+      if (ray.getZ() >= 0)
+      {
+        // At or above the horizon, can not be a note on the carpet.
+        continue;
+      }
+      double t     = (NOTE_HEIGHT - robotToCamera.getZ()) / ray.getZ();
+      double range = t * ray.getNorm();
+      if (range > MAX_RANGE)
+      {
+        continue;
+      }
+      double robotX = robotToCamera.getX() + ray.getX() * t;
+      double robotY = robotToCamera.getY() + ray.getY() * t;
+      double noteX  = robotPose.getX() + robotX * cos - robotY * sin;
+      double noteY  = robotPose.getY() + robotX * sin + robotY * cos;
+      double std    = Math.max(MIN_MEASUREMENT_STD_DEV, MEASUREMENT_STD_DEV * range);
+      correct(noteX, noteY, std * std, timestamp);
+    }
+  }
+
+  /**
+   * Get the note the robot should drive to: the closest confirmed note on the field, sticking with the previous best
+   * note unless another one is closer by {@link #SWITCH_MARGIN}.
+   *
+   * @param robotPose Current robot pose.
+   * @return Field relative position of the note, or null when no note is tracked.
+   */
+  public Translation2d getBestNote(Pose2d robotPose)
+  {
+    int    best         = -1;
+    double bestDistance = Double.MAX_VALUE;
+    int    previous     = -1;
+    for (int i = 0; i < count; i++)
+    {
+      if (hits[i] < MIN_HITS || x[i] < 0 || x[i] > fieldLength || y[i] < 0 || y[i] > fieldWidth)
+      {
+        continue;
+      }
+      double distance = Math.hypot(x[i] - robotPose.getX(), y[i] - robotPose.getY());
+      if (ids[i] == bestId)
+      {
+        previous = i;
+        distance -= SWITCH_MARGIN;
+      }
+      if (distance < bestDistance)
+      {
+        bestDistance = distance;
+        best = i;
+      }
+    }
+    if (best < 0)
+    {
+      bestId = -1;
+      return null;
+    }
+    if (best != previous)
+    {
+      bestId = ids[best];
+    }
+    return new Translation2d(x[best], y[best]);
+  }
+
+  /**
+   * Number of tracks, confirmed or not.
+   *
+   * @return Number of tracks.
+   */
+  public int getTrackCount()
+  {
+    return count;
+  }
+
+  /**
+   * Drop every track, should be called when odometry is reset since the tracks are field relative.
+   */
+  public void clear()
+  {
+    count = 0;
+    bestId = -1;
+  }
+
+  /**
+   * Publish the confirmed tracks to the field, if the rate limit allows it.
+   */
+  public void updateTelemetry()
+  {
+    if (!channel.shouldPublish())
+    {
+      return;
+    }
+    trackPoses.clear();
+    for (int i = 0; i < count; i++)
+    {
+      if (hits[i] >= MIN_HITS)
+      {
+        trackPoses.add(new Pose2d(x[i], y[i], new Rotation2d()));
+      }
+    }
+    fieldObject.setPoses(trackPoses);
+  }
+
+  /**
+   * Grow the uncertainty of every track by the time since the last prediction and drop tracks which timed out.
+   *
+   * @param now Current timestamp in seconds.
+   */
+  private void predict(double now)
+  {
+    double dt = lastPredict < 0 ? 0 : now - lastPredict;
+    lastPredict = now;
+    int i = 0;
+    while (i < count)
+    {
+      if (now - lastSeen[i] > TRACK_TIMEOUT)
+      {
+        remove(i);
+        continue;
+      }
+      variance[i] += PROCESS_VARIANCE * dt;
+      i++;
+    }
+  }
+
+  /**
+   * Correct the closest track within the gate with a detection, or start a new track.
+   *
+   * @param noteX               Detected x position in meters.
+   * @param noteY               Detected y position in meters.
+   * @param measurementVariance Variance of the detection in square meters.
+   * @param timestamp           Capture timestamp in seconds.
+   */
+  private void correct(double noteX, double noteY, double measurementVariance, double timestamp)
+  {
+    int    closest         = -1;
+    double closestDistance = ASSOCIATION_GATE;
+    for (int i = 0; i < count; i++)
+    {
+      if (updated[i])
+      {
+        continue;
+      }
+      double dx       = noteX - x[i];
+      double dy       = noteY - y[i];
+      double distance = (dx * dx + dy * dy) / (variance[i] + measurementVariance);
+      if (distance < closestDistance)
+      {
+        closestDistance = distance;
+        closest = i;
+      }
+    }
+
+    if (closest < 0)
+    {
+      if (count == MAX_TRACKS)
+      {
+        return;
+      }
+      closest = count++;
+      x[closest] = noteX;
+      y[closest] = noteY;
+      variance[closest] = measurementVariance;
+      hits[closest] = 1;
+      ids[closest] = nextId++;
+    } else
+    {
+      double gain = variance[closest] / (variance[closest] + measurementVariance);
+      x[closest] += gain * (noteX - x[closest]);
+      y[closest] += gain * (noteY - y[closest]);
+      variance[closest] *= 1 - gain;
+      hits[closest]++;
+    }
+    lastSeen[closest] = timestamp;
+    updated[closest] = true;
+  }
+
+  /**
+   * Remove a track by moving the last track into its place.
+   *
+   * @param index Index of the track.
+   */
+  private void remove(int index)
+  {
+    count--;
+    x[index] = x[count];
+    y[index] = y[count];
+    variance[index] = variance[count];
+    lastSeen[index] = lastSeen[count];
+    hits[index] = hits[count];
+    ids[index] = ids[count];
+    updated[index] = updated[count];
+  }
+}
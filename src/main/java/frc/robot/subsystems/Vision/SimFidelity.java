@@ -0,0 +1,57 @@
+package frc.robot.subsystems.Vision;
+
+import edu.wpi.first.wpilibj.DriverStation;
+import frc.robot.Constants.VisionConstants;
+import frc.robot.util.AutoSimRunner;
+import java.util.Arrays;
+
+/**
+ * How much work the AprilTag camera simulation does each loop. Every tier feeds the same {@link VisionWorker} through
+ * {@link org.photonvision.simulation.PhotonCameraSim}, only the way the simulated results are produced changes.
+ */
+public enum SimFidelity
+{
+  /**
+   * {@link org.photonvision.simulation.VisionSystemSim} with rendered raw and processed camera streams and wireframe,
+   * for looking at what the camera sees.
+   */
+  RASTER,
+  /**
+   * {@link org.photonvision.simulation.VisionSystemSim} projecting the tag corners and solving PnP, without rendering
+   * any image streams.
+   */
+  GEOMETRY,
+  /**
+   * {@link AnalyticalVisionSim} building results from the tag visibility math at
+   * {@link VisionConstants#ANALYTICAL_SIM_RATE}, without OpenCV.
+   */
+  ANALYTICAL;
+
+  /**
+   * Environment variable overriding {@link VisionConstants#SIM_FIDELITY}, set by
+   * {@code ./gradlew simulateJava -PsimFidelity=<tier>}.
+   */
+  public static final String ENV_VAR = "VISION_SIM_FIDELITY";
+
+  /**
+   * Get the fidelity to simulate the cameras with. Headless auto runs default to {@link #ANALYTICAL}.
+   *
+   * @return {@value #ENV_VAR} when set to a valid tier, otherwise {@link VisionConstants#SIM_FIDELITY}.
+   */
+  public static SimFidelity get()
+  {
+    String fidelity = System.getenv(ENV_VAR);
+    if (fidelity != null && !fidelity.isEmpty())
+    {
+      try
+      {
+        return valueOf(fidelity.trim().toUpperCase());
+      } catch (IllegalArgumentException e)
+      {
+        DriverStation.reportWarning("Unknown vision sim fidelity '" + fidelity + "', expected one of " +
+                                    Arrays.toString(values()) + ", using the default", false);
+      }
+    }
+    return AutoSimRunner.isEnabled() ? ANALYTICAL : VisionConstants.SIM_FIDELITY;
+  }
+}
@@ -0,0 +1,290 @@
+package frc.robot.subsystems.Vision;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N3;
+import edu.wpi.first.wpilibj.DriverStation;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Lookup table of measured vision standard deviations for a single camera, binned by the number of tags, the average
+ * distance and viewing angle to the tags and the robot speed. A lookup is a single array index, cells which were not
+ * calibrated return null so the caller can fall back to {@link VisionFilter#stdDevs}.
+ * <p>
+ * Tables are fitted offline from match logs by {@link frc.robot.util.LogReplay} with {@code -Preplay.calibrate=<dir>}
+ * and deployed as {@code src/main/deploy/vision/<camera>.csv}. Each row is
+ * {@code tags,distance,angle,speed,x,y,heading,samples} with the first four columns being bin indices.
+ */
+public class StdDevModel
+{
+
+  /**
+   * Tag count bins, the last bin holds this many tags or more.
+   */
+  public static final  int    TAG_BINS      = 3;
+  /**
+   * Width of a distance bin in meters.
+   */
+  public static final  double DISTANCE_BIN  = 0.5;
+  /**
+   * Number of distance bins, the last one holds everything further away.
+   */
+  public static final  int    DISTANCE_BINS = 16;
+  /**
+   * Width of a viewing angle bin in radians.
+   */
+  public static final  double ANGLE_BIN     = Math.toRadians(15);
+  /**
+   * Number of viewing angle bins, covering 0 to 90 degrees off the tag normal.
+   */
+  public static final  int    ANGLE_BINS    = 6;
+  /**
+   * Width of a speed bin in meters per second.
+   */
+  public static final  double SPEED_BIN     = 1;
+  /**
+   * Number of speed bins, the last one holds everything faster.
+   */
+  public static final  int    SPEED_BINS    = 5;
+  /**
+   * Smallest standard deviation written to a table, so a lucky cell can not make the estimator trust it completely.
+   */
+  public static final  double MIN_STD_DEV   = 0.01;
+  /**
+   * Total number of cells.
+   */
+  private static final int    CELLS         = TAG_BINS * DISTANCE_BINS * ANGLE_BINS * SPEED_BINS;
+
+  /**
+   * Standard deviations of each cell, null where the table was not calibrated.
+   */
+  private final Matrix<N3, N1>[] cells;
+
+  /**
+   * Create an empty model.
+   */
+  @SuppressWarnings("unchecked")
+  public StdDevModel()
+  {
+    cells = (Matrix<N3, N1>[]) new Matrix[CELLS];
+  }
+
+  /**
+   * Load a model, an empty model is returned when the file does not exist or can not be read.
+   *
+   * @param file Table written by {@link Fitter#write(PrintWriter, int)}.
+   * @return The model.
+   */
+  public static StdDevModel load(File file)
+  {
+    StdDevModel model = new StdDevModel();
+    if (!file.isFile())
+    {
+      return model;
+    }
+    try (BufferedReader reader = new BufferedReader(new FileReader(file)))
+    {
+      String line;
+      while ((line = reader.readLine()) != null)
+      {
+        if (line.isEmpty() || !Character.isDigit(line.charAt(0)))
+        {
+          // Header or comment
+          continue;
+        }
+        String[] parts = line.split(",");
+        int cell = index(Integer.parseInt(parts[0].trim()),
+                         Integer.parseInt(parts[1].trim()),
+                         Integer.parseInt(parts[2].trim()),
+                         Integer.parseInt(parts[3].trim()));
+        model.cells[cell] = VecBuilder.fill(Double.parseDouble(parts[4].trim()),
+                                            Double.parseDouble(parts[5].trim()),
+                                            Double.parseDouble(parts[6].trim()));
+      }
+    } catch (IOException | RuntimeException e)
+    {
+      DriverStation.reportWarning("Failed to read vision standard deviations " + file + ": " + e.getMessage(), false);
+      return new StdDevModel();
+    }
+    return model;
+  }
+
+  /**
+   * Look up the standard deviations of a measurement.
+   *
+   * @param numTags  Number of known tags used.
+   * @param distance Average distance in meters to the tags.
+   * @param angle    Average angle in radians between the tag normals and the direction to the robot.
+   * @param speed    Robot speed in meters per second.
+   * @return Calibrated standard deviations, or null when the cell was not calibrated.
+   */
+  public Matrix<N3, N1> get(int numTags, double distance, double angle, double speed)
+  {
+    if (numTags <= 0)
+    {
+      return null;
+    }
+    return cells[index(numTags, distance, angle, speed)];
+  }
+
+  /**
+   * Check whether any cell is calibrated.
+   *
+   * @return True when the table is not empty.
+   */
+  public boolean isCalibrated()
+  {
+    for (Matrix<N3, N1> cell : cells)
+    {
+      if (cell != null)
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Angle between a tag's normal and the direction from the tag to the robot.
+   *
+   * @param tagPose   Pose of the tag on the field.
+   * @param robotPose Pose of the robot.
+   * @return Angle in radians, 0 when looking straight at the tag.
+   */
+  public static double viewingAngle(Pose2d tagPose, Pose2d robotPose)
+  {
+    double direction = Math.atan2(robotPose.getY() - tagPose.getY(), robotPose.getX() - tagPose.getX());
+    return Math.abs(MathUtil.angleModulus(direction - tagPose.getRotation().getRadians()));
+  }
+
+  /**
+   * Get the cell of a measurement.
+   *
+   * @param numTags  Number of known tags used.
+   * @param distance Average distance in meters to the tags.
+   * @param angle    Average viewing angle in radians.
+   * @param speed    Robot speed in meters per second.
+   * @return Cell index.
+   */
+  private static int index(int numTags, double distance, double angle, double speed)
+  {
+    return index(Math.min(numTags, TAG_BINS) - 1,
+                 bin(distance, DISTANCE_BIN, DISTANCE_BINS),
+                 bin(angle, ANGLE_BIN, ANGLE_BINS),
+                 bin(speed, SPEED_BIN, SPEED_BINS));
+  }
+
+  /**
+   * Get the cell of a set of bins.
+   *
+   * @param tagBin      Tag count bin.
+   * @param distanceBin Distance bin.
+   * @param angleBin    Viewing angle bin.
+   * @param speedBin    Speed bin.
+   * @return Cell index.
+   */
+  private static int index(int tagBin, int distanceBin, int angleBin, int speedBin)
+  {
+    return ((tagBin * DISTANCE_BINS + distanceBin) * ANGLE_BINS + angleBin) * SPEED_BINS + speedBin;
+  }
+
+  /**
+   * Get the bin of a value.
+   *
+   * @param value Value, only its magnitude is used.
+   * @param width Width of a bin.
+   * @param bins  Number of bins, values beyond the last bin go in the last bin.
+   * @return Bin index.
+   */
+  private static int bin(double value, double width, int bins)
+  {
+    return MathUtil.clamp((int) (Math.abs(value) / width), 0, bins - 1);
+  }
+
+  /**
+   * Accumulates measurement errors into the cells of a table.
+   */
+  public static final class Fitter
+  {
+
+    /**
+     * Sum of the squared x, y and heading errors of each cell, three per cell.
+     */
+    private final double[] squaredErrors = new double[CELLS * 3];
+    /**
+     * Number of samples in each cell.
+     */
+    private final int[]    samples       = new int[CELLS];
+
+    /**
+     * Add the error of a measurement against a reference pose.
+     *
+     * @param numTags   Number of known tags used.
+     * @param distance  Average distance in meters to the tags.
+     * @param angle     Average viewing angle in radians.
+     * @param speed     Robot speed in meters per second.
+     * @param estimate  Pose estimated by the camera.
+     * @param reference Reference pose at the capture time.
+     */
+    public void add(int numTags, double distance, double angle, double speed, Pose2d estimate, Pose2d reference)
+    {
+      if (numTags <= 0)
+      {
+        return;
+      }
+      int    cell     = index(numTags, distance, angle, speed);
+      double dx       = estimate.getX() - reference.getX();
+      double dy       = estimate.getY() - reference.getY();
+      double dHeading = estimate.getRotation().minus(reference.getRotation()).getRadians();
+      squaredErrors[cell * 3] += dx * dx;
+      squaredErrors[cell * 3 + 1] += dy * dy;
+      squaredErrors[cell * 3 + 2] += dHeading * dHeading;
+      samples[cell]++;
+    }
+
+    /**
+     * Write the RMS error of every cell with enough samples as a table readable by {@link StdDevModel#load(File)}.
+     *
+     * @param out        Output.
+     * @param minSamples Minimum number of samples for a cell to be written.
+     * @return Number of cells written.
+     */
+    public int write(PrintWriter out, int minSamples)
+    {
+      int written = 0;
+      out.println("tags,distance,angle,speed,x,y,heading,samples");
+      for (int tagBin = 0; tagBin < TAG_BINS; tagBin++)
+      {
+        for (int distanceBin = 0; distanceBin < DISTANCE_BINS; distanceBin++)
+        {
+          for (int angleBin = 0; angleBin < ANGLE_BINS; angleBin++)
+          {
+            for (int speedBin = 0; speedBin < SPEED_BINS; speedBin++)
+            {
+              int cell = index(tagBin, distanceBin, angleBin, speedBin);
+              int n    = samples[cell];
+              if (n < minSamples)
+              {
+                continue;
+              }
+              out.printf("%d,%d,%d,%d,%.4f,%.4f,%.4f,%d%n", tagBin, distanceBin, angleBin, speedBin,
+                         Math.max(MIN_STD_DEV, Math.sqrt(squaredErrors[cell * 3] / n)),
+                         Math.max(MIN_STD_DEV, Math.sqrt(squaredErrors[cell * 3 + 1] / n)),
+                         Math.max(MIN_STD_DEV, Math.sqrt(squaredErrors[cell * 3 + 2] / n)),
+                         n);
+              written++;
+            }
+          }
+        }
+      }
+      return written;
+    }
+  }
+}
@@ -0,0 +1,152 @@
+package frc.robot.subsystems.Vision;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.wpilibj.smartdashboard.Field2d;
+import edu.wpi.first.wpilibj.smartdashboard.FieldObject2d;
+import frc.robot.subsystems.Vision.FiducialVision.Cameras;
+import frc.robot.util.Telemetry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.photonvision.targeting.PhotonPipelineResult;
+import org.photonvision.targeting.PhotonTrackedTarget;
+
+/**
+ * Publishes the vision state to the {@link Field2d}: the tags tracked by every camera and the latest accepted estimate
+ * of each camera. The {@link FieldObject2d} handles are looked up once, the tracked tags are collected into reused
+ * buffers, and objects are only published when they changed, at most at {@link Telemetry.Rate#MEDIUM} and never in
+ * match mode.
+ */
+public class VisionFieldPublisher
+{
+
+  /**
+   * Tags tracked by any camera.
+   */
+  private final FieldObject2d          trackedTargets;
+  /**
+   * Estimated pose of each camera, indexed by {@link Cameras#ordinal()}.
+   */
+  private final FieldObject2d[]        estimateObjects;
+  /**
+   * Latest accepted estimate of each camera, null once published.
+   */
+  private final Pose2d[]               estimates;
+  /**
+   * Latest result of each camera.
+   */
+  private final PhotonPipelineResult[] results;
+  /**
+   * Tags tracked in the current update, indexed by tag id.
+   */
+  private final boolean[]              tracked;
+  /**
+   * Tags published in the last update, indexed by tag id.
+   */
+  private final boolean[]              published;
+  /**
+   * Reused list of the tracked tag poses.
+   */
+  private final List<Pose2d>           trackedPoses = new ArrayList<>();
+  /**
+   * Rate limit of the updates.
+   */
+  private final Telemetry.Channel      channel      =
+      Telemetry.channel(Telemetry.Rate.MEDIUM, Telemetry.Level.DEBUG);
+
+  /**
+   * Create the publisher and its field objects.
+   *
+   * @param field Field to publish to.
+   */
+  public VisionFieldPublisher(Field2d field)
+  {
+    Cameras[] cameras = Cameras.values();
+    trackedTargets = field.getObject("tracked targets");
+    estimateObjects = new FieldObject2d[cameras.length];
+    estimates = new Pose2d[cameras.length];
+    results = new PhotonPipelineResult[cameras.length];
+    for (Cameras camera : cameras)
+    {
+      estimateObjects[camera.ordinal()] = field.getObject(camera + " est pose");
+    }
+    tracked = new boolean[FieldLayout.getMaxTagId() + 1];
+    published = new boolean[tracked.length];
+  }
+
+  /**
+   * Set the latest accepted estimate of a camera, published on the next update.
+   *
+   * @param camera   Camera the estimate came from.
+   * @param estimate Estimated robot pose.
+   */
+  public void setEstimate(Cameras camera, Pose2d estimate)
+  {
+    estimates[camera.ordinal()] = estimate;
+  }
+
+  /**
+   * Set the latest result of a camera, its targets are published on the next update.
+   *
+   * @param camera Camera the result came from.
+   * @param result Latest result.
+   */
+  public void setResult(Cameras camera, PhotonPipelineResult result)
+  {
+    results[camera.ordinal()] = result;
+  }
+
+  /**
+   * Publish whatever changed since the last update, if the rate limit allows it.
+   */
+  public void update()
+  {
+    if (!channel.shouldPublish())
+    {
+      return;
+    }
+
+    for (int i = 0; i < estimates.length; i++)
+    {
+      if (estimates[i] != null)
+      {
+        estimateObjects[i].setPose(estimates[i]);
+        estimates[i] = null;
+      }
+    }
+
+    Arrays.fill(tracked, false);
+    for (PhotonPipelineResult result : results)
+    {
+      if (result == null)
+      {
+        continue;
+      }
+      List<PhotonTrackedTarget> targets = result.getTargets();
+      for (int i = 0; i < targets.size(); i++)
+      {
+        int id = targets.get(i).getFiducialId();
+        if (id >= 0 && id < tracked.length)
+        {
+          tracked[id] = true;
+        }
+      }
+    }
+    if (Arrays.equals(tracked, published))
+    {
+      return;
+    }
+
+    trackedPoses.clear();
+    for (int id = 0; id < tracked.length; id++)
+    {
+      Pose2d tagPose = tracked[id] ? FieldLayout.getTagPose2d(id) : null;
+      if (tagPose != null)
+      {
+        trackedPoses.add(tagPose);
+      }
+    }
+    trackedTargets.setPoses(trackedPoses);
+    System.arraycopy(tracked, 0, published, 0, tracked.length);
+  }
+}
@@ -0,0 +1,182 @@
+package frc.robot.subsystems.Vision;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N3;
+import java.util.List;
+import org.photonvision.PhotonUtils;
+import org.photonvision.targeting.PhotonTrackedTarget;
+
+/**
+ * Standard deviation and rejection math for vision measurements. Kept free of cameras, NetworkTables and the HAL so the
+ * exact same code runs on the robot and in {@link frc.robot.util.LogReplay} on the desktop.
+ */
+public class VisionFilter
+{
+
+  /**
+   * Default maximum pose ambiguity of the best target before an estimate is rejected.
+   */
+  public static final double MAX_AMBIGUITY            = 0.3;
+  /**
+   * Default distance in meters beyond which a single tag estimate is not trusted.
+   */
+  public static final double MAX_SINGLE_TAG_DISTANCE  = 4;
+  /**
+   * Default divisor of the squared average tag distance when scaling the standard deviations.
+   */
+  public static final double DISTANCE_SCALE           = 30;
+  /**
+   * Default distance in meters an estimate may be from the current pose before it is treated as a jump.
+   */
+  public static final double MAX_POSE_JUMP            = 1;
+  /**
+   * Default number of consecutive jumped estimates before they are believed.
+   */
+  public static final int    POSE_JUMP_CONFIRMATIONS  = 10;
+
+  /**
+   * Maximum pose ambiguity of the best target.
+   */
+  private final double maxAmbiguity;
+  /**
+   * Distance beyond which a single tag estimate is not trusted.
+   */
+  private final double maxSingleTagDistance;
+  /**
+   * Divisor of the squared average tag distance.
+   */
+  private final double distanceScale;
+  /**
+   * Distance from the current pose which counts as a jump.
+   */
+  private final double maxPoseJump;
+  /**
+   * Consecutive jumps needed before they are believed.
+   */
+  private final int    poseJumpConfirmations;
+  /**
+   * Number of consecutive estimates which jumped from the current pose.
+   */
+  private       int    poseJumpCount;
+
+  /**
+   * Create a filter with the default thresholds.
+   */
+  public VisionFilter()
+  {
+    this(MAX_AMBIGUITY, MAX_SINGLE_TAG_DISTANCE, DISTANCE_SCALE, MAX_POSE_JUMP, POSE_JUMP_CONFIRMATIONS);
+  }
+
+  /**
+   * Create a filter.
+   *
+   * @param maxAmbiguity          Maximum pose ambiguity of the best target.
+   * @param maxSingleTagDistance  Distance in meters beyond which a single tag estimate is not trusted.
+   * @param distanceScale         Divisor of the squared average tag distance when scaling the standard deviations.
+   * @param maxPoseJump           Distance in meters from the current pose which counts as a jump.
+   * @param poseJumpConfirmations Consecutive jumps needed before they are believed.
+   */
+  public VisionFilter(double maxAmbiguity, double maxSingleTagDistance, double distanceScale, double maxPoseJump,
+                      int poseJumpConfirmations)
+  {
+    this.maxAmbiguity = maxAmbiguity;
+    this.maxSingleTagDistance = maxSingleTagDistance;
+    this.distanceScale = distanceScale;
+    this.maxPoseJump = maxPoseJump;
+    this.poseJumpConfirmations = poseJumpConfirmations;
+  }
+
+  /**
+   * Calculate the standard deviations of an estimated pose based on the number of tags used and their average
+   * distance. Does not modify the filter so it is safe to call from the vision thread.
+   *
+   * @param numTags          Number of known tags used for the estimate.
+   * @param avgDist          Average distance in meters from the estimated pose to the tags.
+   * @param singleTagStdDevs Standard deviations of the camera with a single tag.
+   * @param multiTagStdDevs  Standard deviations of the camera with multiple tags.
+   * @return Standard deviations of the estimated pose.
+   */
+  public Matrix<N3, N1> stdDevs(int numTags, double avgDist, Matrix<N3, N1> singleTagStdDevs,
+                                Matrix<N3, N1> multiTagStdDevs)
+  {
+    if (numTags == 0)
+    {
+      return singleTagStdDevs;
+    }
+    // Increase std devs based on (average) distance
+    if (!acceptDistance(numTags, avgDist))
+    {
+      return VecBuilder.fill(Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE);
+    }
+    // Decrease std devs if multiple targets are visible
+    Matrix<N3, N1> estStdDevs = numTags > 1 ? multiTagStdDevs : singleTagStdDevs;
+    return estStdDevs.times(1 + (avgDist * avgDist / distanceScale));
+  }
+
+  /**
+   * Check the distance of an estimate, single tag estimates beyond the maximum single tag distance are too unreliable
+   * to use no matter what a calibrated table says.
+   *
+   * @param numTags Number of known tags used for the estimate.
+   * @param avgDist Average distance in meters from the estimated pose to the tags.
+   * @return Whether the estimate is close enough to use.
+   */
+  public boolean acceptDistance(int numTags, double avgDist)
+  {
+    return numTags != 1 || avgDist <= maxSingleTagDistance;
+  }
+
+  /**
+   * Check the ambiguity of an estimate.
+   *
+   * @param bestAmbiguity Lowest pose ambiguity of the targets used, from {@link #bestAmbiguity(List)}.
+   * @return Whether the ambiguity is low enough to use the estimate.
+   */
+  public boolean acceptAmbiguity(double bestAmbiguity)
+  {
+    return bestAmbiguity <= maxAmbiguity;
+  }
+
+  /**
+   * Check an estimate against the current pose. Estimates far from the current pose are rejected until enough of them
+   * arrive in a row.
+   *
+   * @param currentPose Current robot pose.
+   * @param estimate    Estimated robot pose.
+   * @return Whether the estimate should be used.
+   */
+  public boolean acceptJump(Pose2d currentPose, Pose2d estimate)
+  {
+    // Estimated pose is very far from the current pose, believe it once it has been seen enough times in a row
+    if (PhotonUtils.getDistanceToPose(currentPose, estimate) > maxPoseJump)
+    {
+      poseJumpCount++;
+      return poseJumpCount >= poseJumpConfirmations;
+    }
+    poseJumpCount = 0;
+    return true;
+  }
+
+  /**
+   * Get the lowest pose ambiguity of a set of targets.
+   *
+   * @param targets Targets used for an estimate.
+   * @return Lowest known ambiguity, 1 (the maximum) when none of the targets report one.
+   */
+  public static double bestAmbiguity(List<PhotonTrackedTarget> targets)
+  {
+    double bestTargetAmbiguity = 1; // 1 is max ambiguity
+    for (int i = 0; i < targets.size(); i++)
+    {
+      double ambiguity = targets.get(i).getPoseAmbiguity();
+      if (ambiguity != -1 && ambiguity < bestTargetAmbiguity)
+      {
+        bestTargetAmbiguity = ambiguity;
+      }
+    }
+    return bestTargetAmbiguity;
+  }
+}
@@ -0,0 +1,465 @@
+package frc.robot.subsystems.Vision;
+
+import edu.wpi.first.apriltag.AprilTag;
+import edu.wpi.first.apriltag.AprilTagFieldLayout;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Pose3d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import frc.robot.util.Telemetry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.photonvision.EstimatedRobotPose;
+import org.photonvision.targeting.PhotonTrackedTarget;
+
+/**
+ * Chain of outlier filters every {@link EstimatedRobotPose} goes through before it reaches the pose estimator. The
+ * filters run in the order they were added on the main robot loop and the first one to reject an estimate stops the
+ * chain, so cheap checks should be added first. Filters keeping state about previous estimates update it from
+ * {@link PoseFilter#accepted(Candidate)}, which only runs once the whole chain accepted an estimate. The number of
+ * estimates accepted and rejected by each filter is published as {@code Vision/Accepted} and
+ * {@code Vision/Rejected/<name>}.
+ * <p>
+ * The chain does not depend on the cameras or the robot, so the log replay runs estimates through the same
+ * {@link #standard(VisionFilter, AprilTagFieldLayout)} chain the robot uses.
+ */
+public class VisionFilterChain
+{
+
+  /**
+   * Default distance in meters an estimate may be outside of the field.
+   */
+  public static final double FIELD_MARGIN     = 0.5;
+  /**
+   * Default height in meters an estimate may be off the carpet.
+   */
+  public static final double MAX_HEIGHT       = 0.25;
+  /**
+   * Default roll and pitch in radians of an estimate, the robot drives flat on the carpet.
+   */
+  public static final double MAX_TILT         = Math.toRadians(10);
+  /**
+   * Default distance in meters consecutive estimates of a camera may differ by beyond what the robot could drive.
+   */
+  public static final double VELOCITY_MARGIN  = 0.5;
+  /**
+   * Default age in seconds after which the previous estimate of a camera is no longer compared against.
+   */
+  public static final double VELOCITY_MAX_AGE = 1.0;
+  /**
+   * Default minimum number of targets used for an estimate which are on the field layout.
+   */
+  public static final int    MIN_KNOWN_TAGS   = 1;
+
+  /**
+   * A single outlier check.
+   */
+  @FunctionalInterface
+  public interface PoseFilter
+  {
+
+    /**
+     * Check an estimate.
+     *
+     * @param candidate Estimate and the robot state to check it against.
+     * @return Whether the estimate should be used.
+     */
+    boolean accept(Candidate candidate);
+
+    /**
+     * Called for every filter once the whole chain accepted an estimate.
+     *
+     * @param candidate The accepted estimate.
+     */
+    default void accepted(Candidate candidate)
+    {
+    }
+  }
+
+  /**
+   * Filters in the order they run.
+   */
+  private final List<PoseFilter>              filters   = new ArrayList<>();
+  /**
+   * Names of the filters.
+   */
+  private final List<String>                  names     = new ArrayList<>();
+  /**
+   * Rejection counters of the filters, created on the first {@link #updateTelemetry()} so the chain can be used
+   * without NetworkTables.
+   */
+  private final List<Telemetry.DoubleChannel> rejected  = new ArrayList<>();
+  /**
+   * Counter of accepted estimates, created with the rejection counters.
+   */
+  private       Telemetry.DoubleChannel       accepted;
+  /**
+   * Candidate reused for every estimate.
+   */
+  private final Candidate                     candidate = new Candidate();
+  /**
+   * Number of estimates rejected by each filter.
+   */
+  private       long[]                        counts    = new long[0];
+  /**
+   * Number of accepted estimates.
+   */
+  private       long                          acceptedCount;
+
+  /**
+   * Create the chain used on the robot. Cheapest checks first, the pose jump filter is stateful and goes last so it
+   * only counts otherwise good estimates.
+   *
+   * @param filter Filter with the ambiguity and pose jump thresholds.
+   * @param layout Layout of the field.
+   * @return The chain.
+   */
+  public static VisionFilterChain standard(VisionFilter filter, AprilTagFieldLayout layout)
+  {
+    VisionFilterChain chain = new VisionFilterChain();
+    chain.add("Ambiguity", ambiguity(filter));
+    chain.add("TagCount", tagCount(MIN_KNOWN_TAGS, layout));
+    chain.add("FieldBounds", fieldBounds(FIELD_MARGIN, layout));
+    chain.add("Height", height(MAX_HEIGHT, MAX_TILT));
+    chain.add("Velocity", velocity(VELOCITY_MARGIN, VELOCITY_MAX_AGE));
+    chain.add("PoseJump", poseJump(filter));
+    return chain;
+  }
+
+  /**
+   * Add a filter to the end of the chain.
+   *
+   * @param name   Name of the filter, used for its rejection counter.
+   * @param filter The filter.
+   */
+  public void add(String name, PoseFilter filter)
+  {
+    filters.add(filter);
+    names.add(name);
+    counts = Arrays.copyOf(counts, filters.size());
+  }
+
+  /**
+   * Run an estimate through the chain.
+   *
+   * @param camera        Index of the camera the estimate came from.
+   * @param estimate      Estimated robot pose.
+   * @param currentPose   Current pose of the pose estimator.
+   * @param fieldVelocity Current field relative velocity of the robot.
+   * @return Whether every filter accepted the estimate.
+   */
+  public boolean test(int camera, EstimatedRobotPose estimate, Pose2d currentPose, ChassisSpeeds fieldVelocity)
+  {
+    candidate.camera = camera;
+    candidate.estimate = estimate;
+    candidate.pose = estimate.estimatedPose.toPose2d();
+    candidate.ambiguity = VisionFilter.bestAmbiguity(estimate.targetsUsed);
+    candidate.currentPose = currentPose;
+    candidate.fieldVelocity = fieldVelocity;
+    for (int i = 0; i < filters.size(); i++)
+    {
+      if (!filters.get(i).accept(candidate))
+      {
+        counts[i]++;
+        return false;
+      }
+    }
+    for (int i = 0; i < filters.size(); i++)
+    {
+      filters.get(i).accepted(candidate);
+    }
+    acceptedCount++;
+    return true;
+  }
+
+  /**
+   * Publish the counters, should be called once per loop.
+   */
+  public void updateTelemetry()
+  {
+    if (accepted == null)
+    {
+      accepted = Telemetry.doubleChannel("Vision/Accepted", Telemetry.Rate.SLOW, Telemetry.Level.MATCH);
+      for (String name : names)
+      {
+        rejected.add(Telemetry.doubleChannel("Vision/Rejected/" + name, Telemetry.Rate.SLOW, Telemetry.Level.MATCH));
+      }
+    }
+    accepted.set(acceptedCount);
+    for (int i = 0; i < rejected.size(); i++)
+    {
+      rejected.get(i).set(counts[i]);
+    }
+  }
+
+  /**
+   * Number of estimates every filter accepted.
+   *
+   * @return Accepted estimates.
+   */
+  public long getAcceptedCount()
+  {
+    return acceptedCount;
+  }
+
+  /**
+   * Number of filters in the chain.
+   *
+   * @return Number of filters.
+   */
+  public int size()
+  {
+    return filters.size();
+  }
+
+  /**
+   * Name of a filter.
+   *
+   * @param index Index of the filter in the chain.
+   * @return Name of the filter.
+   */
+  public String getName(int index)
+  {
+    return names.get(index);
+  }
+
+  /**
+   * Number of estimates a filter rejected.
+   *
+   * @param index Index of the filter in the chain.
+   * @return Rejected estimates.
+   */
+  public long getRejectedCount(int index)
+  {
+    return counts[index];
+  }
+
+  /**
+   * Reject estimates whose best target is too ambiguous.
+   *
+   * @param filter Filter with the ambiguity threshold.
+   * @return The filter.
+   */
+  public static PoseFilter ambiguity(VisionFilter filter)
+  {
+    return candidate -> filter.acceptAmbiguity(candidate.ambiguity);
+  }
+
+  /**
+   * Reject estimates far from the current pose until enough of them arrive in a row.
+   *
+   * @param filter Filter with the jump threshold and state.
+   * @return The filter.
+   */
+  public static PoseFilter poseJump(VisionFilter filter)
+  {
+    return candidate -> filter.acceptJump(candidate.currentPose, candidate.pose);
+  }
+
+  /**
+   * Reject estimates using too few tags which are on the field layout.
+   *
+   * @param minTags Minimum number of known tags.
+   * @param layout  Layout of the field.
+   * @return The filter.
+   */
+  public static PoseFilter tagCount(int minTags, AprilTagFieldLayout layout)
+  {
+    int maxId = 0;
+    for (AprilTag tag : layout.getTags())
+    {
+      maxId = Math.max(maxId, tag.ID);
+    }
+    boolean[] known = new boolean[maxId + 1];
+    for (AprilTag tag : layout.getTags())
+    {
+      known[tag.ID] = true;
+    }
+    return candidate -> {
+      int count = 0;
+      for (PhotonTrackedTarget target : candidate.estimate.targetsUsed)
+      {
+        int id = target.getFiducialId();
+        if (id >= 0 && id < known.length && known[id])
+        {
+          count++;
+        }
+      }
+      return count >= minTags;
+    };
+  }
+
+  /**
+   * Reject estimates outside of the field.
+   *
+   * @param margin Distance in meters an estimate may be outside of the field.
+   * @param layout Layout of the field.
+   * @return The filter.
+   */
+  public static PoseFilter fieldBounds(double margin, AprilTagFieldLayout layout)
+  {
+    double length = layout.getFieldLength();
+    double width  = layout.getFieldWidth();
+    return candidate -> candidate.pose.getX() >= -margin && candidate.pose.getX() <= length + margin &&
+                        candidate.pose.getY() >= -margin && candidate.pose.getY() <= width + margin;
+  }
+
+  /**
+   * Reject estimates which put the robot in the air or tipped over.
+   *
+   * @param maxHeight Height in meters an estimate may be off the carpet.
+   * @param maxTilt   Roll and pitch in radians an estimate may have.
+   * @return The filter.
+   */
+  public static PoseFilter height(double maxHeight, double maxTilt)
+  {
+    return candidate -> {
+      Pose3d pose = candidate.estimate.estimatedPose;
+      return Math.abs(pose.getZ()) <= maxHeight &&
+             Math.abs(pose.getRotation().getX()) <= maxTilt &&
+             Math.abs(pose.getRotation().getY()) <= maxTilt;
+    };
+  }
+
+  /**
+   * Reject estimates which moved further from the last accepted estimate of the same camera than the robot could have
+   * driven in between. Compared against the camera's own estimates instead of odometry, so odometry drift can not
+   * lock vision out, and the comparison stops once the last accepted estimate is older than {@code maxAge}, so a bad
+   * accepted estimate can not either.
+   *
+   * @param margin Distance in meters consecutive estimates may differ by beyond the driven distance.
+   * @param maxAge Age in seconds after which the last accepted estimate is no longer compared against.
+   * @return The filter.
+   */
+  public static PoseFilter velocity(double margin, double maxAge)
+  {
+    return new VelocityFilter(margin, maxAge);
+  }
+
+  /**
+   * State of {@link #velocity(double, double)}, the last accepted estimate of every camera.
+   */
+  private static final class VelocityFilter implements PoseFilter
+  {
+
+    private final double   margin;
+    private final double   maxAge;
+    private       Pose2d[] lastPose      = new Pose2d[0];
+    private       double[] lastTimestamp = new double[0];
+
+    private VelocityFilter(double margin, double maxAge)
+    {
+      this.margin = margin;
+      this.maxAge = maxAge;
+    }
+
+    @Override
+    public boolean accept(Candidate candidate)
+    {
+      int i = candidate.camera;
+      if (i >= lastPose.length)
+      {
+        return true;
+      }
+      Pose2d previous = lastPose[i];
+      double dt       = Math.abs(candidate.estimate.timestampSeconds - lastTimestamp[i]);
+      if (previous == null || dt > maxAge)
+      {
+        return true;
+      }
+      double speed = Math.hypot(candidate.fieldVelocity.vxMetersPerSecond, candidate.fieldVelocity.vyMetersPerSecond);
+      return previous.getTranslation().getDistance(candidate.pose.getTranslation()) <= speed * dt + margin;
+    }
+
+    @Override
+    public void accepted(Candidate candidate)
+    {
+      int i = candidate.camera;
+      if (i >= lastPose.length)
+      {
+        lastPose = Arrays.copyOf(lastPose, i + 1);
+        lastTimestamp = Arrays.copyOf(lastTimestamp, i + 1);
+      }
+      lastPose[i] = candidate.pose;
+      lastTimestamp[i] = candidate.estimate.timestampSeconds;
+    }
+  }
+
+  /**
+   * Estimate being checked, along with the robot state filters compare it to.
+   */
+  public static final class Candidate
+  {
+
+    private int                camera;
+    private EstimatedRobotPose estimate;
+    private Pose2d             pose;
+    private double             ambiguity;
+    private Pose2d             currentPose;
+    private ChassisSpeeds      fieldVelocity;
+
+    private Candidate()
+    {
+    }
+
+    /**
+     * Index of the camera the estimate came from.
+     *
+     * @return Camera index.
+     */
+    public int getCamera()
+    {
+      return camera;
+    }
+
+    /**
+     * Estimated robot pose.
+     *
+     * @return Estimate.
+     */
+    public EstimatedRobotPose getEstimate()
+    {
+      return estimate;
+    }
+
+    /**
+     * Estimated robot pose on the field.
+     *
+     * @return Estimated 2d pose.
+     */
+    public Pose2d getPose()
+    {
+      return pose;
+    }
+
+    /**
+     * Lowest pose ambiguity of the targets used.
+     *
+     * @return Ambiguity.
+     */
+    public double getAmbiguity()
+    {
+      return ambiguity;
+    }
+
+    /**
+     * Current pose of the pose estimator.
+     *
+     * @return Current pose.
+     */
+    public Pose2d getCurrentPose()
+    {
+      return currentPose;
+    }
+
+    /**
+     * Current field relative velocity of the robot.
+     *
+     * @return Field velocity.
+     */
+    public ChassisSpeeds getFieldVelocity()
+    {
+      return fieldVelocity;
+    }
+  }
+}
@@ -0,0 +1,254 @@
+package frc.robot.subsystems.Vision;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N3;
+import java.util.Arrays;
+
+/**
+ * Fuses the vision measurements drained in a loop into as few pose estimator updates as possible. Measurements are
+ * sorted by capture timestamp, stale frames are dropped, and frames from different cameras captured within
+ * {@link #WINDOW} of each other are combined into one inverse variance weighted measurement. The pose estimator then
+ * replays its history once per fused measurement instead of once per camera.
+ * <p>
+ * Only used from the main robot loop, the pending measurements are kept in arrays reused every loop.
+ */
+public class VisionFusion
+{
+
+  /**
+   * Default age in seconds after which a frame is considered stale.
+   */
+  public static final double MAX_AGE = 0.3;
+  /**
+   * Default time in seconds within which frames are considered simultaneous, about one frame at 30 FPS.
+   */
+  public static final double WINDOW  = 0.03;
+
+  /**
+   * Consumer of fused measurements, matching
+   * {@link swervelib.SwerveDrive#addVisionMeasurement(Pose2d, double, Matrix)}.
+   */
+  @FunctionalInterface
+  public interface MeasurementConsumer
+  {
+
+    /**
+     * Accept a fused measurement.
+     *
+     * @param pose      Fused robot pose.
+     * @param timestamp Capture timestamp in seconds.
+     * @param stdDevs   Standard deviations of the fused pose.
+     */
+    void accept(Pose2d pose, double timestamp, Matrix<N3, N1> stdDevs);
+  }
+
+  /**
+   * Age after which a frame is stale.
+   */
+  private final double    maxAge;
+  /**
+   * Time within which frames are simultaneous.
+   */
+  private final double    window;
+  /**
+   * Camera indices of the pending measurements.
+   */
+  private final int[]     cameras;
+  /**
+   * Pending poses.
+   */
+  private final Pose2d[]  poses;
+  /**
+   * Capture timestamps of the pending poses.
+   */
+  private final double[]  timestamps;
+  /**
+   * Standard deviations of x, y and heading of the pending poses, three per measurement.
+   */
+  private final double[]  stdDevs;
+  /**
+   * Number of pending measurements.
+   */
+  private       int       count;
+
+  /**
+   * Create a fusion stage with the default age and window.
+   *
+   * @param capacity Maximum number of measurements per loop.
+   */
+  public VisionFusion(int capacity)
+  {
+    this(capacity, MAX_AGE, WINDOW);
+  }
+
+  /**
+   * Create a fusion stage.
+   *
+   * @param capacity Maximum number of measurements per loop.
+   * @param maxAge   Age in seconds after which a frame is stale.
+   * @param window   Time in seconds within which frames from different cameras are fused.
+   */
+  public VisionFusion(int capacity, double maxAge, double window)
+  {
+    this.maxAge = maxAge;
+    this.window = window;
+    cameras = new int[capacity];
+    poses = new Pose2d[capacity];
+    timestamps = new double[capacity];
+    stdDevs = new double[capacity * 3];
+  }
+
+  /**
+   * Check whether a frame is too old to be fused.
+   *
+   * @param timestamp Capture timestamp in seconds.
+   * @param now       Current timestamp in seconds.
+   * @return Whether the frame is older than the maximum age.
+   */
+  public boolean isStale(double timestamp, double now)
+  {
+    return now - timestamp > maxAge;
+  }
+
+  /**
+   * Add a measurement to be fused. Stale measurements, measurements with unusable standard deviations and measurements
+   * beyond the capacity are dropped.
+   *
+   * @param camera    Index of the camera the measurement came from, frames of the same camera are never fused.
+   * @param pose      Estimated robot pose.
+   * @param timestamp Capture timestamp in seconds.
+   * @param deviation Standard deviations of the estimate.
+   * @param now       Current timestamp in seconds.
+   * @return Whether the measurement was added.
+   */
+  public boolean add(int camera, Pose2d pose, double timestamp, Matrix<N3, N1> deviation, double now)
+  {
+    if (isStale(timestamp, now) || count == poses.length || deviation.get(0, 0) == Double.MAX_VALUE)
+    {
+      return false;
+    }
+    // Insertion sort by timestamp, there are only a handful of measurements per loop.
+    int i = count++;
+    while (i > 0 && timestamps[i - 1] > timestamp)
+    {
+      move(i - 1, i);
+      i--;
+    }
+    cameras[i] = camera;
+    poses[i] = pose;
+    timestamps[i] = timestamp;
+    stdDevs[i * 3] = deviation.get(0, 0);
+    stdDevs[i * 3 + 1] = deviation.get(1, 0);
+    stdDevs[i * 3 + 2] = deviation.get(2, 0);
+    return true;
+  }
+
+  /**
+   * Fuse the pending measurements in timestamp order and clear them.
+   *
+   * @param consumer Consumer of the fused measurements.
+   */
+  public void fuse(MeasurementConsumer consumer)
+  {
+    int start = 0;
+    while (start < count)
+    {
+      // Grow the group while the frames are simultaneous and come from different cameras.
+      int end = start + 1;
+      while (end < count && timestamps[end] - timestamps[start] <= window &&
+             !containsCamera(start, end, cameras[end]))
+      {
+        end++;
+      }
+      if (end - start == 1)
+      {
+        consumer.accept(poses[start],
+                        timestamps[start],
+                        VecBuilder.fill(stdDevs[start * 3], stdDevs[start * 3 + 1], stdDevs[start * 3 + 2]));
+      } else
+      {
+        fuseGroup(start, end, consumer);
+      }
+      start = end;
+    }
+    clear();
+  }
+
+  /**
+   * Drop the pending measurements without fusing them.
+   */
+  public void clear()
+  {
+    Arrays.fill(poses, 0, count, null);
+    count = 0;
+  }
+
+  /**
+   * Combine a group of simultaneous measurements with inverse variance weighting per axis. The heading is averaged as
+   * a weighted sum of unit vectors so it wraps correctly.
+   *
+   * @param start    First measurement of the group.
+   * @param end      One past the last measurement of the group.
+   * @param consumer Consumer of the fused measurement.
+   */
+  private void fuseGroup(int start, int end, MeasurementConsumer consumer)
+  {
+    double xWeight = 0, yWeight = 0, headingWeight = 0;
+    double x = 0, y = 0, cos = 0, sin = 0, timestamp = 0;
+    for (int i = start; i < end; i++)
+    {
+      double wx = 1 / (stdDevs[i * 3] * stdDevs[i * 3]);
+      double wy = 1 / (stdDevs[i * 3 + 1] * stdDevs[i * 3 + 1]);
+      double wh = 1 / (stdDevs[i * 3 + 2] * stdDevs[i * 3 + 2]);
+      x += poses[i].getX() * wx;
+      y += poses[i].getY() * wy;
+      cos += poses[i].getRotation().getCos() * wh;
+      sin += poses[i].getRotation().getSin() * wh;
+      timestamp += timestamps[i] * wx;
+      xWeight += wx;
+      yWeight += wy;
+      headingWeight += wh;
+    }
+    consumer.accept(new Pose2d(x / xWeight, y / yWeight, new Rotation2d(cos, sin)),
+                    timestamp / xWeight,
+                    VecBuilder.fill(Math.sqrt(1 / xWeight), Math.sqrt(1 / yWeight), Math.sqrt(1 / headingWeight)));
+  }
+
+  /**
+   * Check whether a camera already has a measurement in a group.
+   *
+   * @param start  First measurement of the group.
+   * @param end    One past the last measurement of the group.
+   * @param camera Index of the camera to look for.
+   * @return Whether the camera is in the group.
+   */
+  private boolean containsCamera(int start, int end, int camera)
+  {
+    for (int i = start; i < end; i++)
+    {
+      if (cameras[i] == camera)
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Move a pending measurement to another index.
+   *
+   * @param from Index to move from.
+   * @param to   Index to move to.
+   */
+  private void move(int from, int to)
+  {
+    cameras[to] = cameras[from];
+    poses[to] = poses[from];
+    timestamps[to] = timestamps[from];
+    System.arraycopy(stdDevs, from * 3, stdDevs, to * 3, 3);
+  }
+}
@@ -0,0 +1,50 @@
+package frc.robot.subsystems.Vision;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N3;
+import frc.robot.subsystems.Vision.FiducialVision.Cameras;
+import org.photonvision.EstimatedRobotPose;
+import org.photonvision.targeting.PhotonPipelineResult;
+
+/**
+ * A single camera frame processed by the {@link VisionWorker}, handed to the drive loop through the
+ * {@link VisionMeasurementQueue}.
+ */
+public class VisionMeasurement
+{
+
+  /**
+   * Camera the frame came from.
+   */
+  final Cameras              camera;
+  /**
+   * Raw result the measurement was computed from.
+   */
+  final PhotonPipelineResult result;
+  /**
+   * Estimated robot pose, null when no estimate could be generated from the frame.
+   */
+  final EstimatedRobotPose   estimate;
+  /**
+   * Standard deviations of {@link #estimate}.
+   */
+  final Matrix<N3, N1>       stdDevs;
+
+  /**
+   * Create a vision measurement.
+   *
+   * @param camera   Camera the frame came from.
+   * @param result   Raw result of the frame.
+   * @param estimate Estimated robot pose, may be null.
+   * @param stdDevs  Standard deviations of the estimated pose.
+   */
+  VisionMeasurement(Cameras camera, PhotonPipelineResult result, EstimatedRobotPose estimate,
+                    Matrix<N3, N1> stdDevs)
+  {
+    this.camera = camera;
+    this.result = result;
+    this.estimate = estimate;
+    this.stdDevs = stdDevs;
+  }
+}
@@ -0,0 +1,88 @@
+package frc.robot.subsystems.Vision;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free single-producer/single-consumer queue used to hand {@link VisionMeasurement}s from the
+ * {@link VisionWorker} thread to the main robot loop. When the queue is full new measurements are dropped instead of
+ * blocking the producer.
+ */
+public class VisionMeasurementQueue
+{
+
+  /**
+   * Ring buffer storage.
+   */
+  private final AtomicReferenceArray<VisionMeasurement> buffer;
+  /**
+   * Index of the next element to read, only advanced by the consumer.
+   */
+  private final AtomicLong                              head    = new AtomicLong();
+  /**
+   * Index of the next element to write, only advanced by the producer.
+   */
+  private final AtomicLong                              tail    = new AtomicLong();
+  /**
+   * Count of measurements dropped because the queue was full.
+   */
+  private final AtomicLong                              dropped = new AtomicLong();
+
+  /**
+   * Create the queue.
+   *
+   * @param capacity Maximum number of measurements held before new ones are dropped.
+   */
+  public VisionMeasurementQueue(int capacity)
+  {
+    buffer = new AtomicReferenceArray<>(capacity);
+  }
+
+  /**
+   * Add a measurement to the queue. Must only be called from the producer thread.
+   *
+   * @param measurement Measurement to add.
+   * @return false if the queue was full and the measurement was dropped.
+   */
+  public boolean offer(VisionMeasurement measurement)
+  {
+    long t = tail.get();
+    if (t - head.get() >= buffer.length())
+    {
+      dropped.incrementAndGet();
+      return false;
+    }
+    buffer.lazySet((int) (t % buffer.length()), measurement);
+    tail.set(t + 1);
+    return true;
+  }
+
+  /**
+   * Remove the oldest measurement from the queue. Must only be called from the consumer thread.
+   *
+   * @return The oldest measurement or null if the queue is empty.
+   */
+  public VisionMeasurement poll()
+  {
+    long h = head.get();
+    if (h == tail.get())
+    {
+      return null;
+    }
+    int               index       = (int) (h % buffer.length());
+    VisionMeasurement measurement = buffer.get(index);
+    buffer.lazySet(index, null);
+    head.set(h + 1);
+    return measurement;
+  }
+
+  /**
+   * Get the number of measurements dropped because the consumer fell behind.
+   *
+   * @return Dropped measurement count.
+   */
+  public long getDroppedCount()
+  {
+    return dropped.get();
+  }
+}
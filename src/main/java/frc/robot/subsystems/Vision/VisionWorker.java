@@ -0,0 +1,127 @@
+package frc.robot.subsystems.Vision;
+
+import edu.wpi.first.networktables.NetworkTableEvent;
+import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.wpilibj.DriverStation;
+import frc.robot.subsystems.Vision.FiducialVision.Cameras;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiFunction;
+import org.photonvision.targeting.PhotonPipelineResult;
+
+/**
+ * Dedicated thread which processes PhotonVision results as they arrive over NetworkTables, keeping the pose estimation
+ * math off of the main robot loop. Processed frames are published through a {@link VisionMeasurementQueue} which the
+ * drive loop drains once per loop.
+ * <p>
+ * This is the only thread allowed to call {@link org.photonvision.PhotonCamera#getLatestResult()} or
+ * {@link org.photonvision.PhotonPoseEstimator#update} for the AprilTag cameras.
+ */
+public class VisionWorker
+{
+
+  /**
+   * Maximum number of measurements waiting for the drive loop.
+   */
+  static final         int                                                         QUEUE_CAPACITY      = 16;
+  /**
+   * Maximum time the worker sleeps without a NetworkTables event before polling the cameras anyway.
+   */
+  private static final long                                                        FALLBACK_POLL_NANOS =
+      TimeUnit.MILLISECONDS.toNanos(100);
+  /**
+   * Measurements ready to be consumed by the drive loop.
+   */
+  private final        VisionMeasurementQueue                                      queue               =
+      new VisionMeasurementQueue(QUEUE_CAPACITY);
+  /**
+   * Timestamp of the last processed result of each camera, indexed by {@link Cameras#ordinal()}.
+   */
+  private final        double[]                                                    lastResultTimestamp;
+  /**
+   * Function which turns a raw camera result into a measurement.
+   */
+  private final        BiFunction<Cameras, PhotonPipelineResult, VisionMeasurement> processor;
+  /**
+   * Worker thread.
+   */
+  private final        Thread                                                      thread;
+
+  /**
+   * Create and start the vision worker.
+   *
+   * @param processor Function which turns a raw camera result into a measurement, called on the worker thread.
+   */
+  public VisionWorker(BiFunction<Cameras, PhotonPipelineResult, VisionMeasurement> processor)
+  {
+    this.processor = processor;
+    Cameras[] cameras = Cameras.values();
+    lastResultTimestamp = new double[cameras.length];
+
+    thread = new Thread(this::run, "Vision Worker");
+    thread.setDaemon(true);
+
+    NetworkTableInstance inst = NetworkTableInstance.getDefault();
+    for (Cameras camera : cameras)
+    {
+      lastResultTimestamp[camera.ordinal()] = -1;
+      // Wake the worker as soon as PhotonVision publishes a new frame instead of polling every loop.
+      inst.addListener(inst.getTable("photonvision").getSubTable(camera.camera.getName()).getTopic("rawBytes"),
+                       EnumSet.of(NetworkTableEvent.Kind.kValueAll),
+                       event -> LockSupport.unpark(thread));
+    }
+    thread.start();
+  }
+
+  /**
+   * Get the queue of processed measurements. Must only be drained from the main robot loop.
+   *
+   * @return Measurement queue.
+   */
+  public VisionMeasurementQueue getQueue()
+  {
+    return queue;
+  }
+
+  /**
+   * Worker loop, waits for new frames and processes them.
+   */
+  private void run()
+  {
+    Cameras[] cameras = Cameras.values();
+    while (!Thread.currentThread().isInterrupted())
+    {
+      LockSupport.parkNanos(FALLBACK_POLL_NANOS);
+      for (Cameras camera : cameras)
+      {
+        // Every camera is checked on each wake up, timestamps prevent a frame from being processed twice.
+        try
+        {
+          processCamera(camera);
+        } catch (Exception e)
+        {
+          DriverStation.reportError("Vision worker failed to process " + camera + ": " + e.getMessage(),
+                                    e.getStackTrace());
+        }
+      }
+    }
+  }
+
+  /**
+   * Process the latest result of a camera if it has not been processed yet.
+   *
+   * @param camera Camera to process.
+   */
+  private void processCamera(Cameras camera)
+  {
+    PhotonPipelineResult result    = camera.camera.getLatestResult();
+    double               timestamp = result.getTimestampSeconds();
+    if (timestamp == lastResultTimestamp[camera.ordinal()])
+    {
+      return;
+    }
+    lastResultTimestamp[camera.ordinal()] = timestamp;
+    queue.offer(processor.apply(camera, result));
+  }
+}
@@ -0,0 +1,159 @@
+package frc.robot.subsystems.swervedrive;
+
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+
+/**
+ * Shoot on the move aiming. Predicts where the robot will be when the note leaves after the actuation delay, then
+ * leads the target by the distance the robot's velocity carries the note during its time of flight. The time of flight
+ * depends on the distance to the lead point, so the lead point is refined a few times.
+ * <p>
+ * Solved once per loop from {@link SwerveSubsystem#periodic()}, the solution is kept in primitive fields so solving and
+ * reading it does not allocate.
+ */
+public class ShotSolver
+{
+
+  /**
+   * Number of times the lead point is refined, converges well within this for any speed the robot can reach.
+   */
+  private static final int ITERATIONS = 3;
+
+  /**
+   * Distances in meters of the time of flight table, ascending.
+   */
+  private final double[] distances;
+  /**
+   * Times of flight in seconds at each distance.
+   */
+  private final double[] times;
+  /**
+   * Time in seconds between solving and the note leaving the robot.
+   */
+  private final double   delay;
+  /**
+   * Field relative heading in radians to shoot at.
+   */
+  private       double   heading;
+  /**
+   * Distance in meters from the release point to the lead point.
+   */
+  private       double   distance;
+  /**
+   * Time of flight in seconds of the solved shot.
+   */
+  private       double   timeOfFlight;
+
+  /**
+   * Create a solver.
+   *
+   * @param distances Distances in meters of the time of flight table, ascending.
+   * @param times     Times of flight in seconds at each distance.
+   * @param delay     Time in seconds between solving and the note leaving the robot.
+   */
+  public ShotSolver(double[] distances, double[] times, double delay)
+  {
+    if (distances.length == 0 || distances.length != times.length)
+    {
+      throw new IllegalArgumentException("Time of flight table needs one time per distance");
+    }
+    this.distances = distances;
+    this.times = times;
+    this.delay = delay;
+  }
+
+  /**
+   * Solve the shot.
+   *
+   * @param robotX        Robot x position in meters.
+   * @param robotY        Robot y position in meters.
+   * @param fieldVelocity Current field relative velocity.
+   * @param pastVelocity  Field relative velocity {@link #delay} ago, used to estimate the acceleration, or null.
+   * @param targetX       Target x position in meters.
+   * @param targetY       Target y position in meters.
+   */
+  public void solve(double robotX, double robotY, ChassisSpeeds fieldVelocity, ChassisSpeeds pastVelocity,
+                    double targetX, double targetY)
+  {
+    double vx = fieldVelocity.vxMetersPerSecond;
+    double vy = fieldVelocity.vyMetersPerSecond;
+    double ax = 0;
+    double ay = 0;
+    if (pastVelocity != null && delay > 0)
+    {
+      ax = (vx - pastVelocity.vxMetersPerSecond) / delay;
+      ay = (vy - pastVelocity.vyMetersPerSecond) / delay;
+    }
+
+    // State of the robot when the note leaves.
+    double releaseX  = robotX + vx * delay + 0.5 * ax * delay * delay;
+    double releaseY  = robotY + vy * delay + 0.5 * ay * delay * delay;
+    double releaseVx = vx + ax * delay;
+    double releaseVy = vy + ay * delay;
+
+    // The note keeps the robot's velocity, so aim where the target appears to be from the moving robot.
+    double leadX = targetX;
+    double leadY = targetY;
+    for (int i = 0; i < ITERATIONS; i++)
+    {
+      distance = Math.hypot(leadX - releaseX, leadY - releaseY);
+      timeOfFlight = timeOfFlight(distance);
+      leadX = targetX - releaseVx * timeOfFlight;
+      leadY = targetY - releaseVy * timeOfFlight;
+    }
+    distance = Math.hypot(leadX - releaseX, leadY - releaseY);
+    heading = Math.atan2(leadY - releaseY, leadX - releaseX);
+  }
+
+  /**
+   * Field relative heading to shoot at.
+   *
+   * @return Heading in radians.
+   */
+  public double getHeading()
+  {
+    return heading;
+  }
+
+  /**
+   * Distance to the lead point, the distance the shooter should be set up for.
+   *
+   * @return Distance in meters.
+   */
+  public double getDistance()
+  {
+    return distance;
+  }
+
+  /**
+   * Time of flight of the solved shot.
+   *
+   * @return Time in seconds.
+   */
+  public double getTimeOfFlight()
+  {
+    return timeOfFlight;
+  }
+
+  /**
+   * Look up the time of flight at a distance, linearly interpolated and clamped to the ends of the table.
+   *
+   * @param distance Distance in meters.
+   * @return Time of flight in seconds.
+   */
+  public double timeOfFlight(double distance)
+  {
+    if (distance <= distances[0])
+    {
+      return times[0];
+    }
+    for (int i = 1; i < distances.length; i++)
+    {
+      if (distance <= distances[i])
+      {
+        double t = (distance - distances[i - 1]) / (distances[i] - distances[i - 1]);
+        return times[i - 1] + (times[i] - times[i - 1]) * t;
+      }
+    }
+    return times[times.length - 1];
+  }
+}
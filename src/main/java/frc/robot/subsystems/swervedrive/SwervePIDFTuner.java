@@ -0,0 +1,170 @@
+package frc.robot.subsystems.swervedrive;
+
+import edu.wpi.first.networktables.DoubleEntry;
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableEvent;
+import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.wpilibj.DriverStation;
+import java.util.EnumSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import swervelib.SwerveModule;
+import swervelib.parser.PIDFConfig;
+
+/**
+ * Live tuning of the swerve module PIDF gains through NetworkTables. Gains are published under {@code Swerve PIDF/All}
+ * for every module and {@code Swerve PIDF/<module>} for a single module. NetworkTables listeners mark which group
+ * changed and {@link #periodic()} applies the changes in one pass, so nothing is read while the gains are untouched.
+ */
+public class SwervePIDFTuner
+{
+
+  /**
+   * Names of the gains in the order of {@link #toArray(PIDFConfig)}.
+   */
+  private static final String[]        GAINS     = {"P", "I", "D", "F", "Iz"};
+  /**
+   * Modules being tuned.
+   */
+  private final        SwerveModule[]  modules;
+  /**
+   * Drive gain entries, row 0 is every module and row n is module n - 1.
+   */
+  private final        DoubleEntry[][] driveGains;
+  /**
+   * Angle gain entries, row 0 is every module and row n is module n - 1.
+   */
+  private final        DoubleEntry[][] angleGains;
+  /**
+   * Bit mask of the rows which were changed remotely since the last {@link #periodic()}.
+   */
+  private final        AtomicInteger   dirtyRows = new AtomicInteger();
+
+  /**
+   * Publish the current gains of the modules and listen for changes.
+   *
+   * @param modules Modules to tune.
+   */
+  public SwervePIDFTuner(SwerveModule[] modules)
+  {
+    this.modules = modules;
+    driveGains = new DoubleEntry[modules.length + 1][];
+    angleGains = new DoubleEntry[modules.length + 1][];
+
+    NetworkTable table = NetworkTableInstance.getDefault().getTable("Swerve PIDF");
+    driveGains[0] = createEntries(table.getSubTable("All"), "Drive", modules[0].getDrivePIDF(), 0);
+    angleGains[0] = createEntries(table.getSubTable("All"), "Angle", modules[0].getAnglePIDF(), 0);
+    for (int i = 0; i < modules.length; i++)
+    {
+      NetworkTable moduleTable = table.getSubTable(modules[i].configuration.name);
+      driveGains[i + 1] = createEntries(moduleTable, "Drive", modules[i].getDrivePIDF(), i + 1);
+      angleGains[i + 1] = createEntries(moduleTable, "Angle", modules[i].getAnglePIDF(), i + 1);
+    }
+  }
+
+  /**
+   * Apply the gains which changed since the last call. Changes made while connected to the FMS are held back and
+   * applied once it disconnects. A module row changed in the same loop as the "All" row keeps its own gains.
+   */
+  public void periodic()
+  {
+    if (DriverStation.isFMSAttached())
+    {
+      return;
+    }
+    int rows = dirtyRows.getAndSet(0);
+    if (rows == 0)
+    {
+      return;
+    }
+
+    if ((rows & 1) != 0)
+    {
+      PIDFConfig drive = readGains(driveGains[0]);
+      PIDFConfig angle = readGains(angleGains[0]);
+      for (int i = 0; i < modules.length; i++)
+      {
+        if ((rows & (1 << (i + 1))) != 0)
+        {
+          // Changed on its own in the same loop, keep its entries and apply them below.
+          continue;
+        }
+        modules[i].setDrivePIDF(drive);
+        modules[i].setAnglePIDF(angle);
+        // Local sets don't trigger the remote listeners, so this doesn't mark the module rows dirty.
+        writeGains(driveGains[i + 1], drive);
+        writeGains(angleGains[i + 1], angle);
+      }
+    }
+
+    for (int i = 0; i < modules.length; i++)
+    {
+      if ((rows & (1 << (i + 1))) != 0)
+      {
+        modules[i].setDrivePIDF(readGains(driveGains[i + 1]));
+        modules[i].setAnglePIDF(readGains(angleGains[i + 1]));
+      }
+    }
+  }
+
+  /**
+   * Create and publish the entries for one set of gains and mark the row dirty when any of them is changed remotely.
+   *
+   * @param table  Table to publish in.
+   * @param prefix Prefix of the entry names.
+   * @param pidf   Current gains.
+   * @param row    Row of the entries.
+   * @return Entries in the order of {@link #GAINS}.
+   */
+  private DoubleEntry[] createEntries(NetworkTable table, String prefix, PIDFConfig pidf, int row)
+  {
+    NetworkTableInstance inst    = table.getInstance();
+    DoubleEntry[]        entries = new DoubleEntry[GAINS.length];
+    double[]             values  = toArray(pidf);
+    for (int i = 0; i < GAINS.length; i++)
+    {
+      entries[i] = table.getDoubleTopic(prefix + " " + GAINS[i]).getEntry(values[i]);
+      entries[i].set(values[i]);
+      inst.addListener(entries[i],
+                       EnumSet.of(NetworkTableEvent.Kind.kValueRemote),
+                       event -> dirtyRows.accumulateAndGet(1 << row, (mask, bit) -> mask | bit));
+    }
+    return entries;
+  }
+
+  /**
+   * Read a set of gains.
+   *
+   * @param entries Entries in the order of {@link #GAINS}.
+   * @return The gains.
+   */
+  private static PIDFConfig readGains(DoubleEntry[] entries)
+  {
+    return new PIDFConfig(entries[0].get(), entries[1].get(), entries[2].get(), entries[3].get(), entries[4].get());
+  }
+
+  /**
+   * Publish a set of gains.
+   *
+   * @param entries Entries in the order of {@link #GAINS}.
+   * @param pidf    The gains.
+   */
+  private static void writeGains(DoubleEntry[] entries, PIDFConfig pidf)
+  {
+    double[] values = toArray(pidf);
+    for (int i = 0; i < entries.length; i++)
+    {
+      entries[i].set(values[i]);
+    }
+  }
+
+  /**
+   * Get the gains as an array.
+   *
+   * @param pidf The gains.
+   * @return P, I, D, F and integral zone.
+   */
+  private static double[] toArray(PIDFConfig pidf)
+  {
+    return new double[]{pidf.p, pidf.i, pidf.d, pidf.f, pidf.iz};
+  }
+}
@@ -0,0 +1,212 @@
+package frc.robot.subsystems.swervedrive;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Twist2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
+
+/**
+ * Fixed size, time indexed ring of the drive state recorded once per loop. Lets commands look up where the robot was
+ * when a sensor measurement was captured, and predict where it will be once a command has gone through the actuation
+ * delay, instead of acting on the stale state of the current loop.
+ * <p>
+ * Only used from the main robot loop.
+ */
+public class SwerveStateHistory
+{
+
+  /**
+   * Capture timestamps in seconds, oldest at {@link #head}.
+   */
+  private final double[]              timestamps;
+  /**
+   * Robot poses.
+   */
+  private final Pose2d[]              poses;
+  /**
+   * Measured module states.
+   */
+  private final SwerveModuleState[][] moduleStates;
+  /**
+   * Field relative velocities.
+   */
+  private final ChassisSpeeds[]       fieldVelocities;
+  /**
+   * Index of the oldest sample.
+   */
+  private       int                   head;
+  /**
+   * Number of samples.
+   */
+  private       int                   size;
+
+  /**
+   * Create an empty history.
+   *
+   * @param capacity Number of samples to keep, 50 is one second at the default loop period.
+   */
+  public SwerveStateHistory(int capacity)
+  {
+    timestamps = new double[capacity];
+    poses = new Pose2d[capacity];
+    moduleStates = new SwerveModuleState[capacity][];
+    fieldVelocities = new ChassisSpeeds[capacity];
+  }
+
+  /**
+   * Record the state of the current loop, replacing the oldest sample once full.
+   *
+   * @param timestamp     Timestamp in seconds.
+   * @param pose          Robot pose.
+   * @param states        Measured module states.
+   * @param fieldVelocity Field relative velocity.
+   */
+  public void record(double timestamp, Pose2d pose, SwerveModuleState[] states, ChassisSpeeds fieldVelocity)
+  {
+    int index;
+    if (size < timestamps.length)
+    {
+      index = (head + size) % timestamps.length;
+      size++;
+    } else
+    {
+      index = head;
+      head = (head + 1) % timestamps.length;
+    }
+    timestamps[index] = timestamp;
+    poses[index] = pose;
+    moduleStates[index] = states;
+    fieldVelocities[index] = fieldVelocity;
+  }
+
+  /**
+   * Clear the history, should be called when odometry is reset.
+   */
+  public void clear()
+  {
+    size = 0;
+    head = 0;
+  }
+
+  /**
+   * Get the robot pose at a timestamp, interpolated between the surrounding samples.
+   *
+   * @param timestamp Timestamp in seconds.
+   * @return The pose, clamped to the oldest or newest sample outside of the history, null when empty.
+   */
+  public Pose2d getPose(double timestamp)
+  {
+    if (size == 0)
+    {
+      return null;
+    }
+    int after = search(timestamp);
+    if (after == 0)
+    {
+      return poses[slot(0)];
+    }
+    if (after == size)
+    {
+      return poses[slot(size - 1)];
+    }
+    int    before = slot(after - 1);
+    int    next   = slot(after);
+    double t      = (timestamp - timestamps[before]) / (timestamps[next] - timestamps[before]);
+    return poses[before].interpolate(poses[next], t);
+  }
+
+  /**
+   * Get the module states closest to a timestamp.
+   *
+   * @param timestamp Timestamp in seconds.
+   * @return Measured module states, null when empty.
+   */
+  public SwerveModuleState[] getModuleStates(double timestamp)
+  {
+    return size == 0 ? null : moduleStates[nearest(timestamp)];
+  }
+
+  /**
+   * Get the field relative velocity closest to a timestamp.
+   *
+   * @param timestamp Timestamp in seconds.
+   * @return Field relative velocity, null when empty.
+   */
+  public ChassisSpeeds getFieldVelocity(double timestamp)
+  {
+    return size == 0 ? null : fieldVelocities[nearest(timestamp)];
+  }
+
+  /**
+   * Predict the pose of the robot after a delay, assuming it keeps its field relative velocity.
+   *
+   * @param pose          Current pose.
+   * @param fieldVelocity Current field relative velocity.
+   * @param delay         Delay in seconds.
+   * @return Predicted pose.
+   */
+  public static Pose2d predict(Pose2d pose, ChassisSpeeds fieldVelocity, double delay)
+  {
+    ChassisSpeeds robotVelocity = ChassisSpeeds.fromFieldRelativeSpeeds(fieldVelocity, pose.getRotation());
+    return pose.exp(new Twist2d(robotVelocity.vxMetersPerSecond * delay,
+                                robotVelocity.vyMetersPerSecond * delay,
+                                robotVelocity.omegaRadiansPerSecond * delay));
+  }
+
+  /**
+   * Find the first sample at or after a timestamp.
+   *
+   * @param timestamp Timestamp in seconds.
+   * @return Position from the oldest sample, {@link #size} when every sample is older.
+   */
+  private int search(double timestamp)
+  {
+    int low  = 0;
+    int high = size;
+    while (low < high)
+    {
+      int mid = (low + high) >>> 1;
+      if (timestamps[slot(mid)] < timestamp)
+      {
+        low = mid + 1;
+      } else
+      {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Find the sample closest to a timestamp.
+   *
+   * @param timestamp Timestamp in seconds.
+   * @return Array index of the sample.
+   */
+  private int nearest(double timestamp)
+  {
+    int after = search(timestamp);
+    if (after == 0)
+    {
+      return slot(0);
+    }
+    if (after == size)
+    {
+      return slot(size - 1);
+    }
+    int before = slot(after - 1);
+    int next   = slot(after);
+    return timestamp - timestamps[before] <= timestamps[next] - timestamp ? before : next;
+  }
+
+  /**
+   * Convert a position from the oldest sample to an array index.
+   *
+   * @param position Position from the oldest sample.
+   * @return Array index.
+   */
+  private int slot(int position)
+  {
+    return (head + position) % timestamps.length;
+  }
+}
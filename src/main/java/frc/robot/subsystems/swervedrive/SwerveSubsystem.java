@@ -10,29 +10,37 @@ import com.pathplanner.lib.path.PathConstraints;
 import com.pathplanner.lib.path.PathPlannerPath;
 import com.pathplanner.lib.util.HolonomicPathFollowerConfig;
 import com.pathplanner.lib.util.ReplanningConfig;
-import edu.wpi.first.apriltag.AprilTagFieldLayout;
-import edu.wpi.first.apriltag.AprilTagFields;
+import com.revrobotics.CANSparkBase.FaultID;
+import com.revrobotics.CANSparkLowLevel.PeriodicFrame;
+import com.revrobotics.CANSparkMax;
+import edu.wpi.first.math.MathUtil;
 import edu.wpi.first.math.geometry.Pose2d;
-import edu.wpi.first.math.geometry.Pose3d;
 import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.geometry.Translation2d;
 import edu.wpi.first.math.kinematics.ChassisSpeeds;
 import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
 import edu.wpi.first.math.trajectory.Trajectory;
 import edu.wpi.first.math.util.Units;
-import edu.wpi.first.wpilibj.DriverStation;
-import edu.wpi.first.wpilibj.DriverStation.Alliance;
 import edu.wpi.first.wpilibj.RobotBase;
+import edu.wpi.first.wpilibj.TimedRobot;
 import edu.wpi.first.wpilibj.Timer;
-import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.SubsystemBase;
 import edu.wpi.first.wpilibj2.command.sysid.SysIdRoutine.Config;
 import frc.robot.Constants;
 import frc.robot.Constants.AutonConstants;
 import frc.robot.Constants.DrivebaseConstants;
+import frc.robot.Constants.ShooterConstants;
+import frc.robot.Constants.VisionConstants;
 import frc.robot.subsystems.Vision.FiducialVision;
+import frc.robot.subsystems.Vision.FieldTargets;
+import frc.robot.subsystems.Vision.NoteTracker;
 import frc.robot.subsystems.Vision.ObjectVision;
+import frc.robot.util.DataLogger;
+import frc.robot.util.LoopProfiler;
+import frc.robot.util.StartupTracer;
+import frc.robot.util.Telemetry;
 
 import java.io.File;
 import java.util.function.DoubleSupplier;
@@ -43,16 +51,19 @@ import swervelib.SwerveDrive;
 import swervelib.SwerveDriveTest;
 import swervelib.SwerveModule;
 import swervelib.math.SwerveMath;
-import swervelib.parser.PIDFConfig;
 import swervelib.parser.SwerveControllerConfiguration;
 import swervelib.parser.SwerveDriveConfiguration;
 import swervelib.parser.SwerveParser;
-import swervelib.telemetry.SwerveDriveTelemetry;
 import swervelib.telemetry.SwerveDriveTelemetry.TelemetryVerbosity;
 
 public class SwerveSubsystem extends SubsystemBase
 {
 
+  /**
+   * Loops between checks of the Spark Maxes for a reset, once a second.
+   */
+  private static final int RESET_CHECK_LOOPS = 50;
+
   /**
    * PhotonVision class to keep an accurate odometry.
    */
@@ -62,9 +73,60 @@ public class SwerveSubsystem extends SubsystemBase
    */
   private final SwerveDrive         swerveDrive;
   /**
-   * AprilTag field layout.
+   * Robot pose cached after vision has been ingested for the current loop.
+   */
+  private       Pose2d              visionPose          = new Pose2d();
+  /**
+   * Timing of {@link #periodic()}.
+   */
+  private final LoopProfiler.Channel periodicTimer       = LoopProfiler.channel("SwerveSubsystem.periodic");
+  /**
+   * Live tuning of the module gains, only created when {@link Constants#TUNING_MODE} is set.
+   */
+  private       SwervePIDFTuner     pidfTuner;
+  /**
+   * Last commanded robot relative speeds, for the data log.
+   */
+  private final ChassisSpeeds       commandedSpeeds     = new ChassisSpeeds();
+  /**
+   * Drive state of the last second, for latency compensation.
+   */
+  private final SwerveStateHistory  stateHistory        = new SwerveStateHistory(50);
+  /**
+   * Shoot on the move aiming at the speaker, solved every loop.
+   */
+  private final ShotSolver          shotSolver          = new ShotSolver(ShooterConstants.SHOT_DISTANCES,
+                                                                         ShooterConstants.SHOT_TIMES,
+                                                                         Constants.ACTUATION_DELAY);
+  /**
+   * Lead compensated heading to the speaker, for the dashboard.
+   */
+  private final Telemetry.DoubleChannel shotHeading     =
+      Telemetry.doubleChannel("ShotHeading", Telemetry.Rate.MEDIUM, Telemetry.Level.DEBUG);
+  /**
+   * Field relative tracks of the notes seen by the object detection camera.
    */
-  private final AprilTagFieldLayout aprilTagFieldLayout = AprilTagFields.k2024Crescendo.loadAprilTagLayoutField();
+  private final NoteTracker         noteTracker;
+  /**
+   * Drive Spark Maxes sending their encoder frames at the odometry rate.
+   */
+  private       CANSparkMax[]       driveSparks         = new CANSparkMax[0];
+  /**
+   * Angle Spark Maxes sending their absolute encoder frame at the odometry rate.
+   */
+  private       CANSparkMax[]       angleSparks         = new CANSparkMax[0];
+  /**
+   * Last seen reset fault of each drive Spark Max, a rising edge means it rebooted.
+   */
+  private       boolean[]           driveResets         = new boolean[0];
+  /**
+   * Last seen reset fault of each angle Spark Max.
+   */
+  private       boolean[]           angleResets         = new boolean[0];
+  /**
+   * Loops until the Spark Maxes are checked for a reset again.
+   */
+  private       int                 resetCheckCountdown;
 
   /**
    * Initialize {@link SwerveDrive} with the directory provided.
@@ -88,12 +150,20 @@ public class SwerveSubsystem extends SubsystemBase
     System.out.println("}");
 
     // Configure the Telemetry before creating the SwerveDrive to avoid unnecessary objects being created.
-    SwerveDriveTelemetry.verbosity = TelemetryVerbosity.HIGH;
+    // Drops to low verbosity automatically while the FMS is attached. YAGSL publishes from the odometry thread, so
+    // HIGH with the fast odometry thread would write every module to SmartDashboard at the odometry rate.
+    Telemetry.setSwerveVerbosity(DrivebaseConstants.ODOMETRY_PERIOD < TimedRobot.kDefaultPeriod
+                                 ? TelemetryVerbosity.LOW : TelemetryVerbosity.HIGH);
     try
     {
-      swerveDrive = new SwerveParser(directory).createSwerveDrive(Constants.MAX_SPEED);
+      StartupTracer.begin("SwerveParser");
+      SwerveParser parser = new SwerveParser(directory);
+      StartupTracer.end();
+      StartupTracer.begin("SwerveDrive hardware");
+      swerveDrive = parser.createSwerveDrive(Constants.MAX_SPEED);
+      StartupTracer.end();
       // Alternative method if you don't want to supply the conversion factor via JSON files.
-      // swerveDrive = new SwerveParser(directory).createSwerveDrive(maximumSpeed, angleConversionFactor, driveConversionFactor);
+      // swerveDrive = parser.createSwerveDrive(maximumSpeed, angleConversionFactor, driveConversionFactor);
     } catch (Exception e)
     {
       throw new RuntimeException(e);
@@ -108,9 +178,19 @@ public class SwerveSubsystem extends SubsystemBase
       swerveDrive.setHeadingCorrection(true);
       swerveDrive.setCosineCompensator(true);  
     }
+    DataLogger.logModuleLocations(swerveDrive.swerveDriveConfiguration.moduleLocationsMeters);
+    noteTracker = new NoteTracker(VisionConstants.NOTE_CAMERA, swerveDrive.field);
+    setupOdometry();
+    StartupTracer.begin("AutoBuilder");
     setupPathPlanner();
+    StartupTracer.end();
+    StartupTracer.begin("FiducialVision");
     setupPhotonVision();
-    GetSwervePIDF();
+    StartupTracer.end();
+    if (Constants.TUNING_MODE)
+    {
+      pidfTuner = new SwervePIDFTuner(swerveDrive.getModules());
+    }
     //swerveDrive.pushOffsetsToEncoders();  // STOP - this will override the offset values stored on the encoders with the offset values from the JSON files.
 
   }
@@ -124,6 +204,93 @@ public class SwerveSubsystem extends SubsystemBase
   public SwerveSubsystem(SwerveDriveConfiguration driveCfg, SwerveControllerConfiguration controllerCfg)
   {
     swerveDrive = new SwerveDrive(driveCfg, controllerCfg, Constants.MAX_SPEED);
+    noteTracker = new NoteTracker(VisionConstants.NOTE_CAMERA, swerveDrive.field);
+  }
+
+  /**
+   * Run odometry at {@link DrivebaseConstants#ODOMETRY_PERIOD} on the YAGSL odometry thread instead of once per loop,
+   * and have the Spark Maxes send the encoder frames odometry reads at the same rate so every update sees a new sample.
+   * <p>
+   * The heading comes from the navX, so the odometry rate is capped at its update rate, faster updates would integrate
+   * the wheel positions with a stale yaw.
+   * <p>
+   * CAN budget: three frames per module at 17ms is about 720 frames per second, under 10% of the 1Mbit bus on top of
+   * the default traffic. Keep the bus utilization on the driver station under 70% when adding devices or raising the
+   * rate.
+   */
+  private void setupOdometry()
+  {
+    SwerveModule[] modules = swerveDrive.getModules();
+    driveSparks = new CANSparkMax[modules.length];
+    angleSparks = new CANSparkMax[modules.length];
+    driveResets = new boolean[modules.length];
+    angleResets = new boolean[modules.length];
+    for (int i = 0; i < modules.length; i++)
+    {
+      if (modules[i].getDriveMotor().getMotor() instanceof CANSparkMax)
+      {
+        driveSparks[i] = (CANSparkMax) modules[i].getDriveMotor().getMotor();
+      }
+      if (modules[i].getAngleMotor().getMotor() instanceof CANSparkMax)
+      {
+        angleSparks[i] = (CANSparkMax) modules[i].getAngleMotor().getMotor();
+      }
+    }
+    configureOdometryFrames(false);
+    swerveDrive.setOdometryPeriod(DrivebaseConstants.ODOMETRY_PERIOD);
+  }
+
+  /**
+   * Set the status frame periods odometry reads. They are not persisted on the Spark Max, so a controller which
+   * browned out or rebooted is back on the default periods until they are set again.
+   * <p>
+   * A reboot is detected as a rising edge of the active reset fault, the faults are never cleared so the sticky faults
+   * of a brownout stay readable. Checked once every {@link #RESET_CHECK_LOOPS} loops, a reboot takes longer than that.
+   *
+   * @param onlyAfterReset Only configure controllers which reset since they were last checked.
+   */
+  private void configureOdometryFrames(boolean onlyAfterReset)
+  {
+    if (onlyAfterReset && --resetCheckCountdown > 0)
+    {
+      return;
+    }
+    resetCheckCountdown = RESET_CHECK_LOOPS;
+    int framePeriodMs = (int) Math.round(DrivebaseConstants.ODOMETRY_PERIOD * 1000);
+    for (int i = 0; i < driveSparks.length; i++)
+    {
+      if (driveSparks[i] != null && hasReset(driveSparks[i], driveResets, i, onlyAfterReset))
+      {
+        // Status 1 has the velocity, status 2 the position of the integrated encoder.
+        driveSparks[i].setPeriodicFramePeriod(PeriodicFrame.kStatus1, framePeriodMs);
+        driveSparks[i].setPeriodicFramePeriod(PeriodicFrame.kStatus2, framePeriodMs);
+      }
+    }
+    for (int i = 0; i < angleSparks.length; i++)
+    {
+      if (angleSparks[i] != null && hasReset(angleSparks[i], angleResets, i, onlyAfterReset))
+      {
+        // Status 5 has the position of the attached absolute encoder, the integrated encoder is not used.
+        angleSparks[i].setPeriodicFramePeriod(PeriodicFrame.kStatus5, framePeriodMs);
+      }
+    }
+  }
+
+  /**
+   * Check whether a Spark Max reset since it was last checked, and remember its reset fault.
+   *
+   * @param motor          The Spark Max.
+   * @param lastResets     Last seen reset faults.
+   * @param index          Index of the Spark Max in the reset faults.
+   * @param onlyAfterReset False to report a reset regardless of the fault.
+   * @return Whether the Spark Max should be configured.
+   */
+  private static boolean hasReset(CANSparkMax motor, boolean[] lastResets, int index, boolean onlyAfterReset)
+  {
+    boolean reset = motor.getFault(FaultID.kHasReset);
+    boolean rose  = reset && !lastResets[index];
+    lastResets[index] = reset;
+    return !onlyAfterReset || rose;
   }
 
   /**
@@ -132,27 +299,27 @@ public class SwerveSubsystem extends SubsystemBase
   public void setupPhotonVision()
   {
     fiducialVision = new FiducialVision(swerveDrive::getPose, swerveDrive.field);
-    fiducialVision.updatePoseEstimation(swerveDrive);
+    updatePoseWithVision();
 
   }
 
   /**
-   * Update the pose estimation with vision data.
+   * Update the pose estimation with vision data. Should only be called once per loop from {@link #periodic()}.
    */
   public void updatePoseWithVision()
   {
     fiducialVision.updatePoseEstimation(swerveDrive);
+    visionPose = swerveDrive.getPose();
   }
 
   /**
-   * Get the pose while updating with vision readings.
+   * Get the pose with the vision readings from the current loop in place.
    *
-   * @return The robots pose with the vision estimates in place.
+   * @return The robots pose cached by {@link #updatePoseWithVision()}.
    */
   public Pose2d getVisionPose()
   {
-    fiducialVision.updatePoseEstimation(swerveDrive);
-    return swerveDrive.getPose();
+    return visionPose;
   }
 
   /**
@@ -177,13 +344,10 @@ public class SwerveSubsystem extends SubsystemBase
                                          new ReplanningConfig()
                                          // Default path replanning config. See the API for the options here
         ),
-        () -> {
-          // Boolean supplier that controls when the path will be mirrored for the red alliance
-          // This will flip the path being followed to the red side of the field.
-          // THE ORIGIN WILL REMAIN ON THE BLUE SIDE
-          var alliance = DriverStation.getAlliance();
-          return alliance.isPresent() ? alliance.get() == DriverStation.Alliance.Red : false;
-        },
+        // Boolean supplier that controls when the path will be mirrored for the red alliance
+        // This will flip the path being followed to the red side of the field.
+        // THE ORIGIN WILL REMAIN ON THE BLUE SIDE
+        FieldTargets::isRedAlliance,
         this // Reference to this subsystem to set requirements
                                   );
   }
@@ -195,10 +359,8 @@ public class SwerveSubsystem extends SubsystemBase
    */
   public double getDistanceToSpeaker()
   {
-    int allianceAprilTag = DriverStation.getAlliance().get() == Alliance.Blue ? 7 : 4;
-    // Taken from PhotonUtils.getDistanceToPose
-    Pose3d speakerAprilTagPose = aprilTagFieldLayout.getTagPose(allianceAprilTag).get();
-    return getPose().getTranslation().getDistance(speakerAprilTagPose.toPose2d().getTranslation());
+    Pose2d pose = getPose();
+    return Math.hypot(FieldTargets.getSpeakerX() - pose.getX(), FieldTargets.getSpeakerY() - pose.getY());
   }
 
   /**
@@ -208,15 +370,44 @@ public class SwerveSubsystem extends SubsystemBase
    */
   public Rotation2d getSpeakerYaw()
   {
-    int allianceAprilTag = DriverStation.getAlliance().get() == Alliance.Blue ? 7 : 4;
-    // Taken from PhotonUtils.getYawToPose()
-    Pose3d        speakerAprilTagPose = aprilTagFieldLayout.getTagPose(allianceAprilTag).get();
-    Translation2d relativeTrl         = speakerAprilTagPose.toPose2d().relativeTo(getPose()).getTranslation();
-    return new Rotation2d(relativeTrl.getX(), relativeTrl.getY()).plus(swerveDrive.getOdometryHeading());
+    return getSpeakerYaw(getPose());
   }
 
   /**
-   * Aim the robot at the speaker.
+   * Get the yaw to aim at the speaker from a pose.
+   *
+   * @param pose Pose of the robot, such as {@link #getPredictedPose()}.
+   * @return {@link Rotation2d} of which you need to achieve.
+   */
+  public Rotation2d getSpeakerYaw(Pose2d pose)
+  {
+    // Field relative angle of the vector from the robot to the speaker
+    return new Rotation2d(FieldTargets.getSpeakerX() - pose.getX(), FieldTargets.getSpeakerY() - pose.getY());
+  }
+
+  /**
+   * Get the shoot on the move solution for the speaker, solved in {@link #periodic()} from the predicted release pose,
+   * the field velocity and the time of flight table.
+   *
+   * @return The solver holding the lead compensated heading of the current loop.
+   */
+  public ShotSolver getShotSolver()
+  {
+    return shotSolver;
+  }
+
+  /**
+   * Get the note to drive to, tracked by the object detection camera.
+   *
+   * @return Field relative position of the closest confirmed note, or null when no note is tracked.
+   */
+  public Translation2d getBestNote()
+  {
+    return noteTracker.getBestNote(getPose());
+  }
+
+  /**
+   * Aim the robot at the speaker, leading it by the robot's velocity.
    *
    * @param tolerance Tolerance in degrees.
    * @return Command to turn the robot to the speaker.
@@ -229,10 +420,11 @@ public class SwerveSubsystem extends SubsystemBase
           drive(ChassisSpeeds.fromFieldRelativeSpeeds(0,
                                                       0,
                                                       controller.headingCalculate(getHeading().getRadians(),
-                                                                                  getSpeakerYaw().getRadians()),
+                                                                                  shotSolver.getHeading()),
                                                       getHeading())
                );
-        }).until(() -> getSpeakerYaw().minus(getHeading()).getDegrees() < tolerance);
+        }).until(() -> Math.abs(MathUtil.angleModulus(shotSolver.getHeading() - getHeading().getRadians())) <
+                       Math.toRadians(tolerance));
   }
 
   /**
@@ -275,6 +467,18 @@ public class SwerveSubsystem extends SubsystemBase
    * @return PathFinding command
    */
   public Command driveToPose(Pose2d pose)
+  {
+    return driveToPose(pose, 0.0);
+  }
+
+  /**
+   * Use PathPlanner Path finding to go to a point on the field without stopping there.
+   *
+   * @param pose            Target {@link Pose2d} to go to.
+   * @param goalEndVelocity Velocity in meters per second to arrive with.
+   * @return PathFinding command
+   */
+  public Command driveToPose(Pose2d pose, double goalEndVelocity)
   {
 // Create the constraints to use while pathfinding
     PathConstraints constraints = new PathConstraints(
@@ -285,7 +489,7 @@ public class SwerveSubsystem extends SubsystemBase
     return AutoBuilder.pathfindToPose(
         pose,
         constraints,
-        0.0, // Goal end velocity in meters/sec
+        goalEndVelocity, // Goal end velocity in meters/sec
         0.0 // Rotation delay distance in meters. This is how far the robot should travel before attempting to rotate.
                                      );
   }
@@ -378,12 +582,11 @@ public class SwerveSubsystem extends SubsystemBase
   {
     return run(() -> {
       // Make the robot move
-      swerveDrive.drive(SwerveMath.scaleTranslation(new Translation2d(
-                            translationX.getAsDouble() * swerveDrive.getMaximumVelocity(),
-                            translationY.getAsDouble() * swerveDrive.getMaximumVelocity()), 0.8),
-                        Math.pow(angularRotationX.getAsDouble(), 3) * swerveDrive.getMaximumAngularVelocity(),
-                        true,
-                        false);
+      drive(SwerveMath.scaleTranslation(new Translation2d(
+                translationX.getAsDouble() * swerveDrive.getMaximumVelocity(),
+                translationY.getAsDouble() * swerveDrive.getMaximumVelocity()), 0.8),
+            Math.pow(angularRotationX.getAsDouble(), 3) * swerveDrive.getMaximumAngularVelocity(),
+            true);
     });
   }
 
@@ -403,6 +606,7 @@ public class SwerveSubsystem extends SubsystemBase
    */
   public void drive(Translation2d translation, double rotation, boolean fieldRelative)
   {
+    setCommandedSpeeds(translation.getX(), translation.getY(), rotation, fieldRelative);
     swerveDrive.drive(translation,
                       rotation,
                       fieldRelative,
@@ -416,6 +620,7 @@ public class SwerveSubsystem extends SubsystemBase
    */
   public void driveFieldOriented(ChassisSpeeds velocity)
   {
+    setCommandedSpeeds(velocity.vxMetersPerSecond, velocity.vyMetersPerSecond, velocity.omegaRadiansPerSecond, true);
     swerveDrive.driveFieldOriented(velocity);
   }
 
@@ -426,16 +631,68 @@ public class SwerveSubsystem extends SubsystemBase
    */
   public void drive(ChassisSpeeds velocity)
   {
+    setCommandedSpeeds(velocity.vxMetersPerSecond, velocity.vyMetersPerSecond, velocity.omegaRadiansPerSecond, false);
     swerveDrive.drive(velocity);
   }
 
+  /**
+   * Record the commanded speeds for the data log.
+   *
+   * @param vx            Commanded x velocity in meters per second.
+   * @param vy            Commanded y velocity in meters per second.
+   * @param omega         Commanded angular velocity in radians per second.
+   * @param fieldRelative Whether the velocities are field relative, they are logged robot relative.
+   */
+  private void setCommandedSpeeds(double vx, double vy, double omega, boolean fieldRelative)
+  {
+    if (fieldRelative)
+    {
+      Rotation2d heading = getHeading();
+      commandedSpeeds.vxMetersPerSecond = vx * heading.getCos() + vy * heading.getSin();
+      commandedSpeeds.vyMetersPerSecond = -vx * heading.getSin() + vy * heading.getCos();
+    } else
+    {
+      commandedSpeeds.vxMetersPerSecond = vx;
+      commandedSpeeds.vyMetersPerSecond = vy;
+    }
+    commandedSpeeds.omegaRadiansPerSecond = omega;
+  }
+
   @Override
-  public void periodic() 
-{
-    ChangeSwervePIDF();
-    getVisionPose();
+  public void periodic()
+  {
+    periodicTimer.start();
+    configureOdometryFrames(true);
+    if (Constants.TUNING_MODE)
+    {
+      pidfTuner.periodic();
+    }
     updatePoseWithVision();
     fiducialVision.updateVisionField();
+    SwerveModuleState[] states        = swerveDrive.getStates();
+    ChassisSpeeds       fieldVelocity = swerveDrive.getFieldVelocity();
+    double              now           = Timer.getFPGATimestamp();
+    shotSolver.solve(visionPose.getX(),
+                     visionPose.getY(),
+                     fieldVelocity,
+                     stateHistory.getFieldVelocity(now - Constants.ACTUATION_DELAY),
+                     FieldTargets.getSpeakerX(),
+                     FieldTargets.getSpeakerY());
+    shotHeading.set(Math.toDegrees(shotSolver.getHeading()));
+    stateHistory.record(now, visionPose, states, fieldVelocity);
+    if (ObjectVision.camObj != null)
+    {
+      PhotonPipelineResult noteResult = ObjectVision.camObj.getLatestResult();
+      noteTracker.update(noteResult, getPoseAt(noteResult.getTimestampSeconds()), now);
+      noteTracker.updateTelemetry();
+    }
+    DataLogger.logDrive(states,
+                        swerveDrive.getModulePositions(),
+                        commandedSpeeds,
+                        swerveDrive.getRobotVelocity(),
+                        swerveDrive.getGyroRotation3d(),
+                        visionPose);
+    periodicTimer.stop();
   }
 
   @Override
@@ -463,6 +720,10 @@ public class SwerveSubsystem extends SubsystemBase
   public void resetOdometry(Pose2d initialHolonomicPose)
   {
     swerveDrive.resetOdometry(initialHolonomicPose);
+    DataLogger.logReset(initialHolonomicPose);
+    visionPose = swerveDrive.getPose();
+    stateHistory.clear();
+    noteTracker.clear();
   }
 
   /**
@@ -475,6 +736,38 @@ public class SwerveSubsystem extends SubsystemBase
     return swerveDrive.getPose();
   }
 
+  /**
+   * Get the pose of the robot at a past timestamp, such as the capture time of a camera frame.
+   *
+   * @param timestamp FPGA timestamp in seconds.
+   * @return The interpolated pose, or the current pose when there is no history yet.
+   */
+  public Pose2d getPoseAt(double timestamp)
+  {
+    Pose2d pose = stateHistory.getPose(timestamp);
+    return pose != null ? pose : getPose();
+  }
+
+  /**
+   * Predict the pose of the robot once a command sent now takes effect, {@link Constants#ACTUATION_DELAY} from now.
+   *
+   * @return The predicted pose.
+   */
+  public Pose2d getPredictedPose()
+  {
+    return SwerveStateHistory.predict(getPose(), getFieldVelocity(), Constants.ACTUATION_DELAY);
+  }
+
+  /**
+   * Get the drive state history.
+   *
+   * @return State history of the last second.
+   */
+  public SwerveStateHistory getStateHistory()
+  {
+    return stateHistory;
+  }
+
   /**
    * Set chassis speeds with closed-loop velocity control.
    *
@@ -482,6 +775,10 @@ public class SwerveSubsystem extends SubsystemBase
    */
   public void setChassisSpeeds(ChassisSpeeds chassisSpeeds)
   {
+    setCommandedSpeeds(chassisSpeeds.vxMetersPerSecond,
+                       chassisSpeeds.vyMetersPerSecond,
+                       chassisSpeeds.omegaRadiansPerSecond,
+                       false);
     swerveDrive.setChassisSpeeds(chassisSpeeds);
   }
 
@@ -510,8 +807,7 @@ public class SwerveSubsystem extends SubsystemBase
    */
   private boolean isRedAlliance()
   {
-    var alliance = DriverStation.getAlliance();
-    return alliance.isPresent() ? alliance.get() == DriverStation.Alliance.Red : false;
+    return FieldTargets.isRedAlliance();
   }
 
   /**
@@ -659,104 +955,5 @@ public class SwerveSubsystem extends SubsystemBase
   {
     swerveDrive.addVisionMeasurement(new Pose2d(3, 3, Rotation2d.fromDegrees(65)), Timer.getFPGATimestamp());
   }
-  
-  public void GetSwervePIDF() {
-  // ShuffleboardTab tab = Shuffleboard.getTab("Swerve PIDF");
-  swervelib.SwerveModule[] modules = swerveDrive.getModules();
-  for (SwerveModule module : modules)
-  {
-    // Shuffleboard.getTab("Swerve PIDF").add("Drive P: ", module.getDrivePIDF().p);
-    // Shuffleboard.getTab("Swerve PIDF").add("Drive I: ", module.getDrivePIDF().i);
-    // Shuffleboard.getTab("Swerve PIDF").add("Drive D: ", module.getDrivePIDF().d);
-    // Shuffleboard.getTab("Swerve PIDF").add("Drive F: ", module.getDrivePIDF().f);
-    // Shuffleboard.getTab("Swerve PIDF").add("Drive Iz: ", module.getDrivePIDF().iz);
-    // Shuffleboard.getTab("Swerve PIDF").add("Angle P: ", module.getAnglePIDF().p);
-    // Shuffleboard.getTab("Swerve PIDF").add("Angle I: ", module.getAnglePIDF().i);
-    // Shuffleboard.getTab("Swerve PIDF").add("Angle D: ", module.getAnglePIDF().d);
-    // Shuffleboard.getTab("Swerve PIDF").add("Angle F: ", module.getAnglePIDF().f);
-    // Shuffleboard.getTab("Swerve PIDF").add("Angle Iz: ", module.getAnglePIDF().iz);
-
-    SmartDashboard.putNumber("Drive P: ", module.getDrivePIDF().p);
-    SmartDashboard.putNumber("Drive I: ", module.getDrivePIDF().i);
-    SmartDashboard.putNumber("Drive D: ", module.getDrivePIDF().d);
-    SmartDashboard.putNumber("Drive F: ", module.getDrivePIDF().f);
-    SmartDashboard.putNumber("Angle P: ", module.getAnglePIDF().p);
-    SmartDashboard.putNumber("Angle I: ", module.getAnglePIDF().i);
-    SmartDashboard.putNumber("Angle D: ", module.getAnglePIDF().d);
-    SmartDashboard.putNumber("Angle F: ", module.getAnglePIDF().f);
-  }
-  }
-  public void SetSwervePIDF() {
-    swervelib.SwerveModule[] modules = swerveDrive.getModules();
-    for (SwerveModule module : modules)
-    {
-      PIDFConfig drivePIDFConfig = new PIDFConfig(DrivebaseConstants.DrivekP,
-                                                  DrivebaseConstants.DrivekI,
-                                                  DrivebaseConstants.DrivekD,
-                                                  DrivebaseConstants.DrivekF,
-                                                  DrivebaseConstants.DrivekIz);
-      
-      PIDFConfig anglePIDFConfig = new PIDFConfig(DrivebaseConstants.AnglekP,
-                                                  DrivebaseConstants.AnglekI,
-                                                  DrivebaseConstants.AnglekD,
-                                                  DrivebaseConstants.AnglekF,
-                                                  DrivebaseConstants.AnglekIz);
-
-      module.setDrivePIDF(drivePIDFConfig);
-      module.setAnglePIDF(anglePIDFConfig);
-
-      SmartDashboard.putNumber("Drive P: ", module.getDrivePIDF().p);
-      SmartDashboard.putNumber("Drive I: ", module.getDrivePIDF().i);
-      SmartDashboard.putNumber("Drive D: ", module.getDrivePIDF().d);
-      SmartDashboard.putNumber("Drive F: ", module.getDrivePIDF().f);
-      SmartDashboard.putNumber("Drive Iz: ", module.getDrivePIDF().iz);
-
-
-      SmartDashboard.putNumber("Angle P: ", module.getAnglePIDF().p);
-      SmartDashboard.putNumber("Angle I: ", module.getAnglePIDF().i);
-      SmartDashboard.putNumber("Angle D: ", module.getAnglePIDF().d);
-      SmartDashboard.putNumber("Angle F: ", module.getAnglePIDF().f);
-      SmartDashboard.putNumber("Angle Iz: ", module.getAnglePIDF().iz);
-    }
-  }
-  public void ChangeSwervePIDF() {
-        // read PID coefficients from SmartDashboard
-        double DriveP = SmartDashboard.getNumber("Drive P: ", 0);
-        double DriveI = SmartDashboard.getNumber("Drive I: ", 0);
-        double DriveD = SmartDashboard.getNumber("Drive D: ", 0);
-        double DriveF = SmartDashboard.getNumber("Drive F: ", 0);
-        double DriveIz = SmartDashboard.getNumber("Drive Iz: ", 0);
-        
-        double AngleP = SmartDashboard.getNumber("Angle P: ", 0);
-        double AngleI = SmartDashboard.getNumber("Angle I: ", 0);
-        double AngleD = SmartDashboard.getNumber("Angle D: ", 0);
-        double AngleF = SmartDashboard.getNumber("Angle F: ", 0);
-        double AngleIz = SmartDashboard.getNumber("Angle Iz: ", 0);
-
-        if(DriveP != DrivebaseConstants.DrivekP ||
-           DriveI != DrivebaseConstants.DrivekI ||
-           DriveD != DrivebaseConstants.DrivekD ||
-           DriveF != DrivebaseConstants.DrivekF ||
-           DriveIz != DrivebaseConstants.DrivekIz) {
-                                                    DrivebaseConstants.DrivekP = DriveP;
-                                                    DrivebaseConstants.DrivekI = DriveI;
-                                                    DrivebaseConstants.DrivekD = DriveD;
-                                                    DrivebaseConstants.DrivekF = DriveF;
-                                                    DrivebaseConstants.DrivekIz = DriveIz;
-        }
-
-        if(AngleP != DrivebaseConstants.AnglekP ||
-           AngleI != DrivebaseConstants.AnglekI ||
-           AngleD != DrivebaseConstants.AnglekD ||
-           AngleF != DrivebaseConstants.AnglekF ||
-           AngleIz != DrivebaseConstants.AnglekIz) {
-                                                    DrivebaseConstants.AnglekP = AngleP;
-                                                    DrivebaseConstants.AnglekI = AngleI;
-                                                    DrivebaseConstants.AnglekD = AngleD;
-                                                    DrivebaseConstants.AnglekF = AngleF;
-                                                    DrivebaseConstants.AnglekIz = AngleIz;
-          SetSwervePIDF();
-  }
-}
 
 }
@@ -0,0 +1,208 @@
+package frc.robot.util;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.wpilibj.Filesystem;
+import edu.wpi.first.wpilibj.TimedRobot;
+import edu.wpi.first.wpilibj.Timer;
+import edu.wpi.first.wpilibj.simulation.DriverStationSim;
+import edu.wpi.first.wpilibj.simulation.SimHooks;
+import frc.robot.Robot;
+import frc.robot.RobotContainer;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Headless simulation of every autonomous routine. Simulated time is paused and stepped one loop at a time as fast as
+ * the robot code can run, so a 15 second auto finishes in a fraction of that on a laptop. Each auto is run through the
+ * normal {@code autonomousInit}/{@code autonomousPeriodic} with the swerve and vision simulation, and its end pose,
+ * simulated duration and loop cost are reported.
+ * <p>
+ * Enabled by the {@value #ENV_VAR} environment variable, which {@code ./gradlew simulateJava -Pheadless} sets along with
+ * disabling the simulation GUI. The report is printed and written to {@code build/auto_sim_report.csv}.
+ */
+public final class AutoSimRunner
+{
+
+  /**
+   * Environment variable enabling the runner.
+   */
+  public static final  String ENV_VAR        = "HEADLESS_AUTO_SIM";
+  /**
+   * Length of the autonomous period in seconds.
+   */
+  private static final double AUTO_LENGTH    = 15.0;
+  /**
+   * Loops to stay disabled between autos so disabledInit and the default commands run.
+   */
+  private static final int    DISABLED_LOOPS = 10;
+
+  private AutoSimRunner()
+  {
+  }
+
+  /**
+   * Whether the robot is running as a headless auto simulation.
+   *
+   * @return True when {@value #ENV_VAR} is set.
+   */
+  public static boolean isEnabled()
+  {
+    return System.getenv(ENV_VAR) != null;
+  }
+
+  /**
+   * Start the runner thread when enabled, it waits for the robot program to start before taking over the simulated
+   * time. Called from {@link Robot#simulationInit()}.
+   */
+  public static void start()
+  {
+    if (!isEnabled())
+    {
+      return;
+    }
+    Thread thread = new Thread(AutoSimRunner::run, "Auto Sim Runner");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Run every auto and exit with a non zero status if any of them did not finish in time.
+   */
+  private static void run()
+  {
+    int status = 1;
+    try
+    {
+      SimHooks.waitForProgramStart();
+      SimHooks.pauseTiming();
+      RobotContainer container = Robot.getInstance().getRobotContainer();
+
+      List<Result> results = new ArrayList<>();
+      for (String auto : container.getAutoNames())
+      {
+        results.add(runAuto(container, auto));
+      }
+      setMode(false);
+      report(results);
+      status = results.stream().allMatch(result -> result.finished) ? 0 : 1;
+    } catch (Exception e)
+    {
+      e.printStackTrace();
+    } finally
+    {
+      System.exit(status);
+    }
+  }
+
+  /**
+   * Run a single auto until it finishes or the autonomous period is over.
+   *
+   * @param container Robot container to select the auto in.
+   * @param auto      Name of the auto.
+   * @return Result of the run.
+   */
+  private static Result runAuto(RobotContainer container, String auto)
+  {
+    container.setAutonomous(auto);
+    setMode(false);
+    step(DISABLED_LOOPS);
+
+    setMode(true);
+    double startTime = Timer.getFPGATimestamp();
+    Result result    = new Result(auto);
+    do
+    {
+      long start = System.nanoTime();
+      SimHooks.stepTiming(TimedRobot.kDefaultPeriod);
+      long loopNanos = System.nanoTime() - start;
+      result.loops++;
+      result.totalNanos += loopNanos;
+      result.maxNanos = Math.max(result.maxNanos, loopNanos);
+    } while (Robot.getInstance().isAutonomousRunning() && Timer.getFPGATimestamp() - startTime < AUTO_LENGTH);
+
+    result.finished = !Robot.getInstance().isAutonomousRunning();
+    result.duration = Timer.getFPGATimestamp() - startTime;
+    result.endPose = container.getRobotPose();
+    return result;
+  }
+
+  /**
+   * Set the simulated driver station mode.
+   *
+   * @param autonomousEnabled True for enabled autonomous, false for disabled.
+   */
+  private static void setMode(boolean autonomousEnabled)
+  {
+    DriverStationSim.setDsAttached(true);
+    DriverStationSim.setAutonomous(autonomousEnabled);
+    DriverStationSim.setEnabled(autonomousEnabled);
+    DriverStationSim.notifyNewData();
+  }
+
+  /**
+   * Step the simulation.
+   *
+   * @param loops Number of robot loops to step.
+   */
+  private static void step(int loops)
+  {
+    for (int i = 0; i < loops; i++)
+    {
+      SimHooks.stepTiming(TimedRobot.kDefaultPeriod);
+    }
+  }
+
+  /**
+   * Print the results and write them to {@code build/auto_sim_report.csv}.
+   *
+   * @param results Results of every auto.
+   * @throws IOException If the report could not be written.
+   */
+  private static void report(List<Result> results) throws IOException
+  {
+    File report = new File(Filesystem.getOperatingDirectory(), "build/auto_sim_report.csv");
+    report.getParentFile().mkdirs();
+    try (PrintWriter out = new PrintWriter(report))
+    {
+      out.println("auto,finished,durationS,endX,endY,endHeading,loops,avgLoopMs,maxLoopMs");
+      System.out.printf("%-30s %8s %9s %24s %10s %10s%n", "Auto", "Finished", "Time (s)", "End pose (m, m, deg)",
+                        "Avg (ms)", "Max (ms)");
+      for (Result result : results)
+      {
+        double avgMs = result.totalNanos / 1e6 / Math.max(result.loops, 1);
+        double maxMs = result.maxNanos / 1e6;
+        out.printf("%s,%b,%.3f,%.3f,%.3f,%.1f,%d,%.3f,%.3f%n", result.auto, result.finished, result.duration,
+                   result.endPose.getX(), result.endPose.getY(), result.endPose.getRotation().getDegrees(),
+                   result.loops, avgMs, maxMs);
+        System.out.printf("%-30s %8b %9.2f %24s %10.2f %10.2f%n", result.auto, result.finished, result.duration,
+                          String.format("(%.2f, %.2f, %.0f)", result.endPose.getX(), result.endPose.getY(),
+                                        result.endPose.getRotation().getDegrees()),
+                          avgMs, maxMs);
+      }
+    }
+    System.out.println("Wrote " + report);
+  }
+
+  /**
+   * Result of running a single auto.
+   */
+  private static final class Result
+  {
+
+    private final String  auto;
+    private       boolean finished;
+    private       double  duration;
+    private       Pose2d  endPose = new Pose2d();
+    private       int     loops;
+    private       long    totalNanos;
+    private       long    maxNanos;
+
+    private Result(String auto)
+    {
+      this.auto = auto;
+    }
+  }
+}
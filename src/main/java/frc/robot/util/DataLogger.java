@@ -0,0 +1,271 @@
+package frc.robot.util;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Pose3d;
+import edu.wpi.first.math.geometry.Rotation3d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.math.kinematics.SwerveModulePosition;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N3;
+import edu.wpi.first.util.datalog.DataLog;
+import edu.wpi.first.util.datalog.DoubleArrayLogEntry;
+import edu.wpi.first.util.datalog.DoubleLogEntry;
+import edu.wpi.first.util.datalog.IntegerArrayLogEntry;
+import edu.wpi.first.util.datalog.StructArrayLogEntry;
+import edu.wpi.first.util.datalog.StructLogEntry;
+import edu.wpi.first.wpilibj.DataLogManager;
+import edu.wpi.first.wpilibj.DriverStation;
+import java.util.List;
+import org.photonvision.targeting.PhotonTrackedTarget;
+
+/**
+ * Binary on-robot log of the drive and vision state for post match analysis, written to a WPILib {@link DataLog} by
+ * {@link DataLogManager}. The log goes to the USB stick when one is plugged into the roboRIO and to
+ * {@code /home/lvuser/logs} otherwise.
+ * <p>
+ * Values are struct encoded into entries created once at startup. Appending only copies the bytes into the log's
+ * buffer, the file is written by the {@link DataLog} background thread so logging never blocks the loop.
+ */
+public final class DataLogger
+{
+
+  /**
+   * Maximum number of tags logged per vision measurement.
+   */
+  private static final int                                       MAX_TAGS        = 16;
+  /**
+   * Log all entries are written to.
+   */
+  private static final DataLog                                   log             = DataLogManager.getLog();
+  /**
+   * Measured module states.
+   */
+  private static final StructArrayLogEntry<SwerveModuleState>    moduleStates    =
+      StructArrayLogEntry.create(log, "Drive/ModuleStates", SwerveModuleState.struct);
+  /**
+   * Module positions.
+   */
+  private static final StructArrayLogEntry<SwerveModulePosition> modulePositions =
+      StructArrayLogEntry.create(log, "Drive/ModulePositions", SwerveModulePosition.struct);
+  /**
+   * Commanded robot relative speeds.
+   */
+  private static final StructLogEntry<ChassisSpeeds>             commandedSpeeds =
+      StructLogEntry.create(log, "Drive/CommandedSpeeds", ChassisSpeeds.struct);
+  /**
+   * Measured robot relative speeds.
+   */
+  private static final StructLogEntry<ChassisSpeeds>             measuredSpeeds  =
+      StructLogEntry.create(log, "Drive/MeasuredSpeeds", ChassisSpeeds.struct);
+  /**
+   * Gyro rotation.
+   */
+  private static final StructLogEntry<Rotation3d>                gyro            =
+      StructLogEntry.create(log, "Drive/Gyro", Rotation3d.struct);
+  /**
+   * Odometry pose, including vision.
+   */
+  private static final StructLogEntry<Pose2d>                    odometryPose    =
+      StructLogEntry.create(log, "Drive/OdometryPose", Pose2d.struct);
+  /**
+   * Poses odometry was reset to.
+   */
+  private static final StructLogEntry<Pose2d>                    resetPose       =
+      StructLogEntry.create(log, "Drive/ResetPose", Pose2d.struct);
+  /**
+   * Time between the start of consecutive loops.
+   */
+  private static final DoubleLogEntry                            loopPeriod      =
+      new DoubleLogEntry(log, "Robot/LoopPeriodMs");
+  /**
+   * Time spent in {@code robotPeriodic()}.
+   */
+  private static final DoubleLogEntry                            loopTime        =
+      new DoubleLogEntry(log, "Robot/LoopTimeMs");
+  /**
+   * Reusable tag id arrays indexed by their length, so a measurement can be logged without allocating.
+   */
+  private static final long[][]                                  tagIds          = new long[MAX_TAGS + 1][];
+  /**
+   * Timestamp of the start of the current loop.
+   */
+  private static       long                                      loopStartTime;
+
+  static
+  {
+    for (int i = 0; i <= MAX_TAGS; i++)
+    {
+      tagIds[i] = new long[i];
+    }
+  }
+
+  private DataLogger()
+  {
+  }
+
+  /**
+   * Start logging. NetworkTables are not mirrored into the log, everything worth keeping is logged explicitly.
+   */
+  public static void start()
+  {
+    DataLogManager.logNetworkTables(false);
+    DriverStation.startDataLog(log);
+  }
+
+  /**
+   * Mark the start of a robot loop, should be the first call in {@code robotPeriodic()}.
+   */
+  public static void loopStart()
+  {
+    long now = System.nanoTime();
+    if (loopStartTime != 0)
+    {
+      loopPeriod.append((now - loopStartTime) / 1e6);
+    }
+    loopStartTime = now;
+  }
+
+  /**
+   * Mark the end of a robot loop, should be the last call in {@code robotPeriodic()}.
+   */
+  public static void loopEnd()
+  {
+    loopTime.append((System.nanoTime() - loopStartTime) / 1e6);
+  }
+
+  /**
+   * Log the drive state of the current loop.
+   *
+   * @param states    Measured module states.
+   * @param positions Module positions.
+   * @param commanded Commanded robot relative speeds.
+   * @param measured  Measured robot relative speeds.
+   * @param rotation  Gyro rotation.
+   * @param pose      Odometry pose.
+   */
+  public static void logDrive(SwerveModuleState[] states, SwerveModulePosition[] positions, ChassisSpeeds commanded,
+                              ChassisSpeeds measured, Rotation3d rotation, Pose2d pose)
+  {
+    moduleStates.append(states);
+    modulePositions.append(positions);
+    commandedSpeeds.append(commanded);
+    measuredSpeeds.append(measured);
+    gyro.append(rotation);
+    odometryPose.append(pose);
+  }
+
+  /**
+   * Log the module locations once at startup, so the log can be replayed without the swerve configuration.
+   *
+   * @param locations Module locations relative to the center of the robot.
+   */
+  public static void logModuleLocations(Translation2d[] locations)
+  {
+    StructArrayLogEntry.create(log, "Drive/ModuleLocations", Translation2d.struct).append(locations);
+  }
+
+  /**
+   * Log an odometry reset.
+   *
+   * @param pose Pose odometry was reset to.
+   */
+  public static void logReset(Pose2d pose)
+  {
+    resetPose.append(pose);
+  }
+
+  /**
+   * Create the entries for a camera and log its standard deviations.
+   *
+   * @param camera           Name of the camera.
+   * @param singleTagStdDevs Standard deviations of the camera with a single tag.
+   * @param multiTagStdDevs  Standard deviations of the camera with multiple tags.
+   * @return Entries of the camera.
+   */
+  public static VisionChannel visionChannel(String camera, Matrix<N3, N1> singleTagStdDevs,
+                                            Matrix<N3, N1> multiTagStdDevs)
+  {
+    String prefix = "Vision/" + camera + "/";
+    new DoubleArrayLogEntry(log, prefix + "SingleTagStdDevs").append(singleTagStdDevs.getData());
+    new DoubleArrayLogEntry(log, prefix + "MultiTagStdDevs").append(multiTagStdDevs.getData());
+    return new VisionChannel(prefix);
+  }
+
+  /**
+   * Log entries of a single camera.
+   */
+  public static final class VisionChannel
+  {
+
+    /**
+     * Estimated robot pose on the field.
+     */
+    private final StructLogEntry<Pose2d> pose;
+    /**
+     * Estimated robot pose including height, roll and pitch, for the outlier filters in the log replay.
+     */
+    private final StructLogEntry<Pose3d> pose3d;
+    /**
+     * Capture timestamp of the measurement in seconds.
+     */
+    private final DoubleLogEntry         timestamp;
+    /**
+     * Standard deviations of x, y and heading.
+     */
+    private final DoubleArrayLogEntry    stdDevs;
+    /**
+     * Lowest pose ambiguity of the tags used.
+     */
+    private final DoubleLogEntry         ambiguity;
+    /**
+     * Fiducial ids of the tags used.
+     */
+    private final IntegerArrayLogEntry   tags;
+    /**
+     * Reusable standard deviation array.
+     */
+    private final double[]               stdDevValues = new double[3];
+
+    private VisionChannel(String prefix)
+    {
+      pose = StructLogEntry.create(log, prefix + "Pose", Pose2d.struct);
+      pose3d = StructLogEntry.create(log, prefix + "Pose3d", Pose3d.struct);
+      timestamp = new DoubleLogEntry(log, prefix + "Timestamp");
+      stdDevs = new DoubleArrayLogEntry(log, prefix + "StdDevs");
+      ambiguity = new DoubleLogEntry(log, prefix + "Ambiguity");
+      tags = new IntegerArrayLogEntry(log, prefix + "Tags");
+    }
+
+    /**
+     * Log a vision measurement.
+     *
+     * @param estimatedPose    Estimated robot pose.
+     * @param timestampSeconds Capture timestamp in seconds.
+     * @param deviations       Standard deviations of the estimate.
+     * @param bestAmbiguity    Lowest pose ambiguity of the targets used.
+     * @param targets          Targets used for the estimate, logged last.
+     */
+    public void log(Pose3d estimatedPose, double timestampSeconds, Matrix<N3, N1> deviations, double bestAmbiguity,
+                    List<PhotonTrackedTarget> targets)
+    {
+      pose.append(estimatedPose.toPose2d());
+      pose3d.append(estimatedPose);
+      timestamp.append(timestampSeconds);
+      stdDevValues[0] = deviations.get(0, 0);
+      stdDevValues[1] = deviations.get(1, 0);
+      stdDevValues[2] = deviations.get(2, 0);
+      stdDevs.append(stdDevValues);
+      ambiguity.append(bestAmbiguity);
+
+      long[] ids = tagIds[Math.min(targets.size(), MAX_TAGS)];
+      for (int i = 0; i < ids.length; i++)
+      {
+        ids[i] = targets.get(i).getFiducialId();
+      }
+      tags.append(ids);
+    }
+  }
+}
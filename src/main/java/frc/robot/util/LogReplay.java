@@ -0,0 +1,638 @@
+package frc.robot.util;
+
+import edu.wpi.first.apriltag.AprilTagFieldLayout;
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.estimator.SwerveDrivePoseEstimator;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Pose3d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Rotation3d;
+import edu.wpi.first.math.geometry.Transform3d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.interpolation.TimeInterpolatableBuffer;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
+import edu.wpi.first.math.kinematics.SwerveModulePosition;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N3;
+import edu.wpi.first.util.datalog.DataLogReader;
+import edu.wpi.first.util.datalog.DataLogRecord;
+import edu.wpi.first.util.struct.Struct;
+import frc.robot.Constants.AprilTagConstants;
+import frc.robot.subsystems.Vision.StdDevModel;
+import frc.robot.subsystems.Vision.VisionFilter;
+import frc.robot.subsystems.Vision.VisionFilterChain;
+import frc.robot.subsystems.Vision.VisionFusion;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.photonvision.EstimatedRobotPose;
+import org.photonvision.PhotonPoseEstimator.PoseStrategy;
+import org.photonvision.PhotonUtils;
+import org.photonvision.targeting.PhotonTrackedTarget;
+
+/**
+ * Desktop replay of a match log written by {@link DataLogger}. Wheel odometry, the gyro and every logged vision
+ * measurement are fed through a {@link SwerveDrivePoseEstimator} as fast as the log can be read, and the reconstructed
+ * trajectory is written to a CSV next to the pose logged on the robot. Vision measurements go through the same
+ * {@link VisionFilterChain#standard(VisionFilter, AprilTagFieldLayout)} chain and {@link VisionFusion} stage as on the
+ * robot, with the fused measurements added once per loop.
+ * <p>
+ * Run with {@code ./gradlew replayLog -Plog=<file.wpilog> [-Pout=<file.csv>]}. The vision thresholds can be overridden
+ * with {@code -Preplay.<name>=<value>}, see {@link #main(String...)}, to tune them against real match data without
+ * redeploying.
+ */
+public final class LogReplay
+{
+
+  /**
+   * Seconds of reference poses kept to look up the reference pose of a vision measurement.
+   */
+  private static final double POSE_HISTORY            = 2;
+  /**
+   * Minimum number of measurements in a cell before its fitted standard deviations are written.
+   */
+  private static final int    MIN_CALIBRATION_SAMPLES = 20;
+  /**
+   * Maximum number of vision measurements fused per loop, the same as the queue of the robot's vision worker.
+   */
+  private static final int    VISION_CAPACITY         = 16;
+
+  /**
+   * Layout of the field the log was recorded on.
+   */
+  private final AprilTagFieldLayout              fieldLayout = AprilTagFieldLayout.loadField(AprilTagConstants.FIELD);
+  /**
+   * Vision filter with the thresholds being tested.
+   */
+  private final VisionFilter                     filter;
+  /**
+   * Outlier filters, the same chain as on the robot.
+   */
+  private final VisionFilterChain                filterChain;
+  /**
+   * Fuses the accepted measurements of a loop, the same as on the robot.
+   */
+  private final VisionFusion                     visionFusion;
+  /**
+   * Single tag standard deviations to use instead of the logged ones, null to use the logged ones.
+   */
+  private final Matrix<N3, N1>                   singleTagOverride;
+  /**
+   * Multi tag standard deviations to use instead of the logged ones, null to use the logged ones.
+   */
+  private final Matrix<N3, N1>                   multiTagOverride;
+  /**
+   * Directory of the {@link StdDevModel} tables to test, null to only use the standard deviation formula.
+   */
+  private final File                             modelDirectory;
+  /**
+   * Directory the fitted {@link StdDevModel} tables are written to, null to not calibrate.
+   */
+  private final File                             calibrateDirectory;
+  /**
+   * Names of the entries by id.
+   */
+  private final Map<Integer, String>             entries     = new HashMap<>();
+  /**
+   * Vision state of each camera by its log prefix.
+   */
+  private final Map<String, CameraState>         cameras     = new HashMap<>();
+  /**
+   * Pose estimator, created once the module locations and first odometry sample have been read.
+   */
+  private       SwerveDrivePoseEstimator         estimator;
+  /**
+   * Kinematics from the logged module locations.
+   */
+  private       SwerveDriveKinematics            kinematics;
+  /**
+   * Latest module positions.
+   */
+  private       SwerveModulePosition[]           positions;
+  /**
+   * Latest gyro angle.
+   */
+  private       Rotation2d                       gyroAngle   = new Rotation2d();
+  /**
+   * Latest pose logged by the robot.
+   */
+  private       Pose2d                           loggedPose  = new Pose2d();
+  /**
+   * Latest measured robot relative speeds.
+   */
+  private       ChassisSpeeds                    speeds      = new ChassisSpeeds();
+  /**
+   * Latest measured robot speed.
+   */
+  private       double                           speed;
+  /**
+   * Odometry reset waiting for the estimator to be created.
+   */
+  private       Pose2d                           pendingReset;
+  /**
+   * Fused vision measurements added to the estimator.
+   */
+  private       int                              fused;
+  /**
+   * Sum of the squared distance between the replayed and logged pose.
+   */
+  private       double                           squaredErrorSum;
+  /**
+   * Number of odometry samples.
+   */
+  private       int                              samples;
+
+  /**
+   * Create a replay.
+   *
+   * @param filter             Vision filter to test.
+   * @param singleTagOverride  Single tag standard deviations to test, null to use the logged ones.
+   * @param multiTagOverride   Multi tag standard deviations to test, null to use the logged ones.
+   * @param modelDirectory     Directory of {@link StdDevModel} tables to test, null to only use the formula.
+   * @param calibrateDirectory Directory to write fitted {@link StdDevModel} tables to, null to not calibrate.
+   */
+  public LogReplay(VisionFilter filter, Matrix<N3, N1> singleTagOverride, Matrix<N3, N1> multiTagOverride,
+                   File modelDirectory, File calibrateDirectory)
+  {
+    this.filter = filter;
+    filterChain = VisionFilterChain.standard(filter, fieldLayout);
+    visionFusion = new VisionFusion(VISION_CAPACITY);
+    this.singleTagOverride = singleTagOverride;
+    this.multiTagOverride = multiTagOverride;
+    this.modelDirectory = modelDirectory;
+    this.calibrateDirectory = calibrateDirectory;
+  }
+
+  /**
+   * Replay a log and write the reconstructed trajectory.
+   *
+   * @param logFile Log written by {@link DataLogger}.
+   * @param out     CSV output.
+   * @throws IOException If the log could not be read.
+   */
+  public void run(String logFile, PrintWriter out) throws IOException
+  {
+    DataLogReader reader = new DataLogReader(logFile);
+    if (!reader.isValid())
+    {
+      throw new IOException(logFile + " is not a valid data log");
+    }
+    out.println("time,x,y,heading,loggedX,loggedY,loggedHeading");
+    for (DataLogRecord record : reader)
+    {
+      if (record.isStart())
+      {
+        DataLogRecord.StartRecordData start = record.getStartData();
+        entries.put(start.entry, start.name);
+        continue;
+      }
+      if (record.isControl())
+      {
+        continue;
+      }
+      String name = entries.get(record.getEntry());
+      if (name != null)
+      {
+        handle(name, record, out);
+      }
+    }
+    System.out.printf("%d odometry samples, %d vision measurements accepted, %d fused measurements%n",
+                      samples, filterChain.getAcceptedCount(), fused);
+    for (int i = 0; i < filterChain.size(); i++)
+    {
+      System.out.printf("  rejected by %s: %d%n", filterChain.getName(i), filterChain.getRejectedCount(i));
+    }
+    if (samples > 0)
+    {
+      System.out.printf("RMS difference from the logged pose: %.3f m%n", Math.sqrt(squaredErrorSum / samples));
+    }
+    if (calibrateDirectory != null)
+    {
+      writeCalibration();
+    }
+  }
+
+  /**
+   * Write the fitted standard deviation table of every camera.
+   *
+   * @throws IOException If a table could not be written.
+   */
+  private void writeCalibration() throws IOException
+  {
+    calibrateDirectory.mkdirs();
+    for (CameraState camera : cameras.values())
+    {
+      File table = new File(calibrateDirectory, camera.name + ".csv");
+      try (PrintWriter out = new PrintWriter(table))
+      {
+        int cells = camera.fitter.write(out, MIN_CALIBRATION_SAMPLES);
+        System.out.printf("Wrote %d calibrated cells to %s%n", cells, table);
+      }
+    }
+  }
+
+  /**
+   * Handle a single data record.
+   *
+   * @param name   Name of the entry.
+   * @param record Data record.
+   * @param out    CSV output.
+   */
+  private void handle(String name, DataLogRecord record, PrintWriter out)
+  {
+    double time = record.getTimestamp() / 1e6;
+    switch (name)
+    {
+      case "Drive/ModuleLocations" ->
+          kinematics = new SwerveDriveKinematics(unpackArray(record, Translation2d.struct, Translation2d.class));
+      case "Drive/ModulePositions" ->
+          positions = unpackArray(record, SwerveModulePosition.struct, SwerveModulePosition.class);
+      case "Drive/Gyro" -> gyroAngle = unpack(record, Rotation3d.struct).toRotation2d();
+      case "Drive/MeasuredSpeeds" ->
+      {
+        speeds = unpack(record, ChassisSpeeds.struct);
+        speed = Math.hypot(speeds.vxMetersPerSecond, speeds.vyMetersPerSecond);
+      }
+      case "Drive/ResetPose" -> reset(unpack(record, Pose2d.struct));
+      case "Drive/OdometryPose" ->
+      {
+        // The pose is the last drive entry logged each loop, so it completes an odometry sample.
+        loggedPose = unpack(record, Pose2d.struct);
+        updateOdometry(time, out);
+      }
+      default ->
+      {
+        if (name.startsWith("Vision/"))
+        {
+          handleVision(name, record);
+        }
+      }
+    }
+  }
+
+  /**
+   * Reset the estimator to a pose, the same as {@code SwerveSubsystem.resetOdometry}.
+   *
+   * @param pose Pose to reset to.
+   */
+  private void reset(Pose2d pose)
+  {
+    if (estimator == null)
+    {
+      pendingReset = pose;
+      return;
+    }
+    estimator.resetPosition(gyroAngle, positions, pose);
+    for (CameraState camera : cameras.values())
+    {
+      if (camera.reference != null)
+      {
+        camera.reference.resetPosition(gyroAngle, positions, pose);
+      }
+    }
+  }
+
+  /**
+   * Update the estimator with the latest odometry sample and write the pose.
+   *
+   * @param time Timestamp of the sample in seconds.
+   * @param out  CSV output.
+   */
+  private void updateOdometry(double time, PrintWriter out)
+  {
+    if (positions == null || kinematics == null)
+    {
+      return;
+    }
+    if (estimator == null)
+    {
+      estimator = new SwerveDrivePoseEstimator(kinematics, gyroAngle, positions,
+                                               pendingReset != null ? pendingReset : loggedPose);
+    }
+    estimator.updateWithTime(time, gyroAngle, positions);
+    // The vision measurements of a loop are logged before its odometry pose, fuse them the same as the robot did.
+    visionFusion.fuse(this::addFusedMeasurement);
+    Pose2d pose = estimator.getEstimatedPosition();
+    if (calibrateDirectory != null)
+    {
+      updateReferences(time, pose);
+    }
+
+    samples++;
+    double error = pose.getTranslation().getDistance(loggedPose.getTranslation());
+    squaredErrorSum += error * error;
+    out.printf("%.6f,%.4f,%.4f,%.3f,%.4f,%.4f,%.3f%n", time,
+               pose.getX(), pose.getY(), pose.getRotation().getDegrees(),
+               loggedPose.getX(), loggedPose.getY(), loggedPose.getRotation().getDegrees());
+  }
+
+  /**
+   * Update the reference estimator of every camera with the latest odometry sample. A camera's reference gets the
+   * accepted measurements of every other camera, but never its own, so its measurements are not calibrated against a
+   * pose they already pulled towards themselves. With a single camera the reference is odometry only.
+   *
+   * @param time Timestamp of the sample in seconds.
+   * @param pose Pose of the main estimator, the starting pose of new references.
+   */
+  private void updateReferences(double time, Pose2d pose)
+  {
+    for (CameraState camera : cameras.values())
+    {
+      if (camera.reference == null)
+      {
+        camera.reference = new SwerveDrivePoseEstimator(kinematics, gyroAngle, positions, pose);
+      }
+      camera.referencePoses.addSample(time, camera.reference.updateWithTime(time, gyroAngle, positions));
+    }
+  }
+
+  /**
+   * Handle a vision record. The entries of a measurement are logged in order and completed by the tag ids.
+   *
+   * @param name   Name of the entry.
+   * @param record Data record.
+   */
+  private void handleVision(String name, DataLogRecord record)
+  {
+    int         split  = name.lastIndexOf('/') + 1;
+    CameraState camera = cameras.computeIfAbsent(name.substring(0, split), this::createCamera);
+    switch (name.substring(split))
+    {
+      case "SingleTagStdDevs" -> camera.singleTagStdDevs = toVector(record.getDoubleArray());
+      case "MultiTagStdDevs" -> camera.multiTagStdDevs = toVector(record.getDoubleArray());
+      case "Pose" -> camera.pose = unpack(record, Pose2d.struct);
+      case "Pose3d" -> camera.pose3d = unpack(record, Pose3d.struct);
+      case "Timestamp" -> camera.timestamp = record.getDouble();
+      case "Ambiguity" -> camera.ambiguity = record.getDouble();
+      case "Tags" -> addVisionMeasurement(camera, record.getIntegerArray(), record.getTimestamp() / 1e6);
+      default ->
+      {
+      }
+    }
+  }
+
+  /**
+   * Create the state of a camera.
+   *
+   * @param prefix Log prefix of the camera, {@code Vision/<name>/}.
+   * @return Camera state.
+   */
+  private CameraState createCamera(String prefix)
+  {
+    CameraState camera = new CameraState();
+    camera.index = cameras.size();
+    camera.name = prefix.substring("Vision/".length(), prefix.length() - 1);
+    camera.model = modelDirectory != null ? StdDevModel.load(new File(modelDirectory, camera.name + ".csv"))
+                                          : new StdDevModel();
+    return camera;
+  }
+
+  /**
+   * Recalculate the standard deviations of a logged measurement, add it to the calibration, run it through the filter
+   * chain and queue it for fusion.
+   *
+   * @param camera Camera the measurement came from.
+   * @param tags   Fiducial ids of the tags used.
+   * @param now    Time in seconds the measurement was logged, when the robot loop processed it.
+   */
+  private void addVisionMeasurement(CameraState camera, long[] tags, double now)
+  {
+    Pose2d estimate   = camera.pose;
+    Pose3d estimate3d = camera.pose3d;
+    camera.pose = null;
+    camera.pose3d = null;
+    if (estimator == null || estimate == null)
+    {
+      return;
+    }
+    if (estimate3d == null)
+    {
+      // Logs from before the 3d pose was logged only have the pose on the carpet.
+      estimate3d = new Pose3d(estimate);
+    }
+    int    numTags  = 0;
+    double avgDist  = 0;
+    double avgAngle = 0;
+    for (long id : tags)
+    {
+      Optional<Pose3d> tagPose = fieldLayout.getTagPose((int) id);
+      if (tagPose.isPresent())
+      {
+        numTags++;
+        avgDist += PhotonUtils.getDistanceToPose(estimate, tagPose.get().toPose2d());
+        avgAngle += StdDevModel.viewingAngle(tagPose.get().toPose2d(), estimate);
+      }
+    }
+    if (numTags > 0)
+    {
+      avgDist /= numTags;
+      avgAngle /= numTags;
+    }
+    if (calibrateDirectory != null)
+    {
+      // The reference leaves this camera out, so it is independent of the measurement, but still not ground truth.
+      Optional<Pose2d> reference = camera.referencePoses.getSample(camera.timestamp);
+      if (reference.isPresent())
+      {
+        camera.fitter.add(numTags, avgDist, avgAngle, speed, estimate, reference.get());
+      }
+    }
+    Matrix<N3, N1> single = singleTagOverride != null ? singleTagOverride : camera.singleTagStdDevs;
+    Matrix<N3, N1> multi  = multiTagOverride != null ? multiTagOverride : camera.multiTagStdDevs;
+    if (single == null || multi == null)
+    {
+      return;
+    }
+
+    Matrix<N3, N1> stdDevs = filter.acceptDistance(numTags, avgDist)
+                             ? camera.model.get(numTags, avgDist, avgAngle, speed) : null;
+    if (stdDevs == null)
+    {
+      stdDevs = filter.stdDevs(numTags, avgDist, single, multi);
+    }
+
+    List<PhotonTrackedTarget> targets = new ArrayList<>(tags.length);
+    for (long id : tags)
+    {
+      // Only the id and the ambiguity of a target are logged, which is all the filters look at.
+      targets.add(new PhotonTrackedTarget(0, 0, 0, 0, (int) id, new Transform3d(), new Transform3d(),
+                                          camera.ambiguity, List.of(), List.of()));
+    }
+    Pose2d        currentPose   = estimator.getEstimatedPosition();
+    ChassisSpeeds fieldVelocity = ChassisSpeeds.fromRobotRelativeSpeeds(speeds, currentPose.getRotation());
+    if (filterChain.test(camera.index,
+                         new EstimatedRobotPose(estimate3d, camera.timestamp, targets,
+                                                PoseStrategy.MULTI_TAG_PNP_ON_COPROCESSOR),
+                         currentPose,
+                         fieldVelocity))
+    {
+      visionFusion.add(camera.index, estimate, camera.timestamp, stdDevs, now);
+      for (CameraState other : cameras.values())
+      {
+        if (other != camera && other.reference != null)
+        {
+          other.reference.addVisionMeasurement(estimate, camera.timestamp, stdDevs);
+        }
+      }
+    }
+  }
+
+  /**
+   * Add a fused vision measurement to the estimator.
+   *
+   * @param pose      Fused robot pose.
+   * @param timestamp Capture timestamp in seconds.
+   * @param stdDevs   Standard deviations of the fused pose.
+   */
+  private void addFusedMeasurement(Pose2d pose, double timestamp, Matrix<N3, N1> stdDevs)
+  {
+    fused++;
+    estimator.addVisionMeasurement(pose, timestamp, stdDevs);
+  }
+
+  /**
+   * Decode a struct record.
+   *
+   * @param record Data record.
+   * @param struct Struct of the value.
+   * @param <T>    Type of the value.
+   * @return The value.
+   */
+  private static <T> T unpack(DataLogRecord record, Struct<T> struct)
+  {
+    return struct.unpack(ByteBuffer.wrap(record.getRaw()).order(ByteOrder.LITTLE_ENDIAN));
+  }
+
+  /**
+   * Decode a struct array record.
+   *
+   * @param record Data record.
+   * @param struct Struct of the elements.
+   * @param type   Class of the elements.
+   * @param <T>    Type of the elements.
+   * @return The values.
+   */
+  @SuppressWarnings("unchecked")
+  private static <T> T[] unpackArray(DataLogRecord record, Struct<T> struct, Class<T> type)
+  {
+    ByteBuffer buffer = ByteBuffer.wrap(record.getRaw()).order(ByteOrder.LITTLE_ENDIAN);
+    T[]        values = (T[]) Array.newInstance(type, buffer.remaining() / struct.getSize());
+    for (int i = 0; i < values.length; i++)
+    {
+      values[i] = struct.unpack(buffer);
+    }
+    return values;
+  }
+
+  /**
+   * Convert a logged standard deviation array to a vector.
+   *
+   * @param values x, y and heading standard deviations.
+   * @return The vector.
+   */
+  private static Matrix<N3, N1> toVector(double[] values)
+  {
+    return VecBuilder.fill(values[0], values[1], values[2]);
+  }
+
+  /**
+   * Parse a comma separated standard deviation property.
+   *
+   * @param name Name of the system property.
+   * @return The vector, or null when the property is not set.
+   */
+  private static Matrix<N3, N1> vectorProperty(String name)
+  {
+    String value = System.getProperty(name);
+    if (value == null)
+    {
+      return null;
+    }
+    String[] parts = value.split(",");
+    return VecBuilder.fill(Double.parseDouble(parts[0]), Double.parseDouble(parts[1]), Double.parseDouble(parts[2]));
+  }
+
+  /**
+   * Get a file system property.
+   *
+   * @param name Name of the system property.
+   * @return The file, or null when the property is not set.
+   */
+  private static File fileProperty(String name)
+  {
+    String value = System.getProperty(name);
+    return value != null ? new File(value) : null;
+  }
+
+  /**
+   * Replay a log. Thresholds are read from system properties, defaulting to the values used on the robot:
+   * <ul>
+   *   <li>{@code replay.singleTagStdDevs}, {@code replay.multiTagStdDevs}: {@code x,y,heading}, default logged</li>
+   *   <li>{@code replay.maxSingleTagDistance}, {@code replay.distanceScale}: standard deviation scaling</li>
+   *   <li>{@code replay.maxAmbiguity}, {@code replay.maxPoseJump}, {@code replay.poseJumpConfirmations}</li>
+   *   <li>{@code replay.stdDevModel}: directory of {@link StdDevModel} tables to test</li>
+   *   <li>{@code replay.calibrate}: directory to write {@link StdDevModel} tables fitted from the log to</li>
+   * </ul>
+   *
+   * @param args Log file and optionally the CSV file to write, {@code replay.csv} by default.
+   * @throws IOException If the log could not be read or the CSV written.
+   */
+  public static void main(String... args) throws IOException
+  {
+    if (args.length < 1)
+    {
+      System.err.println("Usage: LogReplay <file.wpilog> [output.csv]");
+      System.exit(1);
+    }
+    VisionFilter filter = new VisionFilter(
+        Double.parseDouble(System.getProperty("replay.maxAmbiguity", "" + VisionFilter.MAX_AMBIGUITY)),
+        Double.parseDouble(System.getProperty("replay.maxSingleTagDistance",
+                                              "" + VisionFilter.MAX_SINGLE_TAG_DISTANCE)),
+        Double.parseDouble(System.getProperty("replay.distanceScale", "" + VisionFilter.DISTANCE_SCALE)),
+        Double.parseDouble(System.getProperty("replay.maxPoseJump", "" + VisionFilter.MAX_POSE_JUMP)),
+        Integer.parseInt(System.getProperty("replay.poseJumpConfirmations",
+                                            "" + VisionFilter.POSE_JUMP_CONFIRMATIONS)));
+    LogReplay replay = new LogReplay(filter,
+                                     vectorProperty("replay.singleTagStdDevs"),
+                                     vectorProperty("replay.multiTagStdDevs"),
+                                     fileProperty("replay.stdDevModel"),
+                                     fileProperty("replay.calibrate"));
+    String output = args.length > 1 ? args[1] : "replay.csv";
+    try (PrintWriter out = new PrintWriter(output))
+    {
+      replay.run(args[0], out);
+    }
+    System.out.println("Wrote " + output);
+  }
+
+  /**
+   * Vision entries of a camera, filled in as the records of a measurement are read.
+   */
+  private static final class CameraState
+  {
+
+    private final StdDevModel.Fitter               fitter         = new StdDevModel.Fitter();
+    private final TimeInterpolatableBuffer<Pose2d> referencePoses =
+        TimeInterpolatableBuffer.createBuffer(POSE_HISTORY);
+    private       SwerveDrivePoseEstimator         reference;
+    private       String                           name;
+    private       StdDevModel                      model;
+    private       Matrix<N3, N1>                   singleTagStdDevs;
+    private       Matrix<N3, N1>                   multiTagStdDevs;
+    private       int                              index;
+    private       Pose2d                           pose;
+    private       Pose3d                           pose3d;
+    private       double                           timestamp;
+    private       double                           ambiguity;
+  }
+}
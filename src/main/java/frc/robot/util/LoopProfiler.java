@@ -0,0 +1,238 @@
+package frc.robot.util;
+
+import edu.wpi.first.networktables.DoublePublisher;
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.wpilibj2.command.Command;
+import edu.wpi.first.wpilibj2.command.CommandScheduler;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Allocation free loop timing profiler. Each {@link Channel} records nanosecond durations into a preallocated ring
+ * buffer and the p50/p99/max of the buffered samples are published to NetworkTables under {@code LoopProfiler/} once a
+ * second.
+ * <p>
+ * Subsystems time their own {@code periodic()} through a channel, and commands are timed automatically once
+ * {@link #bindCommandTiming()} has been called.
+ */
+public final class LoopProfiler
+{
+
+  /**
+   * Number of samples kept per channel.
+   */
+  private static final int                             SAMPLES             = 256;
+  /**
+   * Number of loops between publishing the statistics, 1Hz at the default 20ms loop.
+   */
+  private static final int                             PUBLISH_PERIOD      = 50;
+  /**
+   * NetworkTable the statistics are published to.
+   */
+  private static final NetworkTable                    table               =
+      NetworkTableInstance.getDefault().getTable("LoopProfiler");
+  /**
+   * Every channel created so far.
+   */
+  private static final List<Channel>                   channels            = new ArrayList<>();
+  /**
+   * Channels of every command which has been executed so far, by name so commands which are rebuilt on every button
+   * press share one channel.
+   */
+  private static final HashMap<String, Channel>        commandChannels     = new HashMap<>();
+  /**
+   * Time between the start of consecutive loops.
+   */
+  private static final Channel                         loopPeriod          = channel("Robot.loopPeriod");
+  /**
+   * Timestamp of the last command boundary, used to time command execution.
+   */
+  private static       long                            commandMarker;
+  /**
+   * Timestamp of the start of the last loop.
+   */
+  private static       long                            lastLoopStart;
+  /**
+   * Loops since the statistics were last published.
+   */
+  private static       int                             loopsSincePublish;
+
+  private LoopProfiler()
+  {
+  }
+
+  /**
+   * Create a timing channel. Channels should be created once, typically as a field, and reused every loop.
+   *
+   * @param name Name of the channel in NetworkTables.
+   * @return The new channel.
+   */
+  public static Channel channel(String name)
+  {
+    Channel channel = new Channel(name);
+    channels.add(channel);
+    return channel;
+  }
+
+  /**
+   * Time every command's {@code execute()} through {@link CommandScheduler#onCommandExecute}. The marker is bound to
+   * the default button loop so this should be called after all trigger bindings have been made, at the end of
+   * {@code robotInit()}, for the marker to run after every trigger has been polled.
+   */
+  public static void bindCommandTiming()
+  {
+    CommandScheduler.getInstance().getDefaultButtonLoop().bind(() -> commandMarker = System.nanoTime());
+    CommandScheduler.getInstance().onCommandExecute(LoopProfiler::recordCommand);
+  }
+
+  /**
+   * Mark the start of a robot loop, should be the first call in the mode periodic functions or robotPeriodic.
+   */
+  public static void loopStart()
+  {
+    long now = System.nanoTime();
+    if (lastLoopStart != 0)
+    {
+      loopPeriod.record(now - lastLoopStart);
+    }
+    lastLoopStart = now;
+  }
+
+  /**
+   * Publish the statistics of every channel when the publish period has elapsed. Should be called once per loop.
+   */
+  public static void periodic()
+  {
+    if (++loopsSincePublish < PUBLISH_PERIOD)
+    {
+      return;
+    }
+    loopsSincePublish = 0;
+    for (int i = 0; i < channels.size(); i++)
+    {
+      channels.get(i).publish();
+    }
+  }
+
+  /**
+   * Record the time since the last command boundary for the command which just executed. This includes the
+   * {@code isFinished()} and {@code end()} of the previously executed command.
+   *
+   * @param command Command which just executed.
+   */
+  private static void recordCommand(Command command)
+  {
+    long    now     = System.nanoTime();
+    String  name    = command.getName();
+    Channel channel = commandChannels.get(name);
+    if (channel == null)
+    {
+      channel = channel("Commands/" + name);
+      commandChannels.put(name, channel);
+    }
+    channel.record(now - commandMarker);
+    commandMarker = now;
+  }
+
+  /**
+   * A single timed section of the loop.
+   */
+  public static final class Channel
+  {
+
+    /**
+     * Ring buffer of durations in nanoseconds.
+     */
+    private final long[]          samples = new long[SAMPLES];
+    /**
+     * Scratch buffer used to sort the samples when publishing.
+     */
+    private final long[]          sorted  = new long[SAMPLES];
+    /**
+     * Median duration publisher.
+     */
+    private final DoublePublisher p50Publisher;
+    /**
+     * 99th percentile duration publisher.
+     */
+    private final DoublePublisher p99Publisher;
+    /**
+     * Maximum duration publisher.
+     */
+    private final DoublePublisher maxPublisher;
+    /**
+     * Next index to write in {@link #samples}.
+     */
+    private       int             index;
+    /**
+     * Number of valid samples in {@link #samples}.
+     */
+    private       int             count;
+    /**
+     * Start timestamp set by {@link #start()}.
+     */
+    private       long            startTime;
+
+    /**
+     * Create the channel and its publishers.
+     *
+     * @param name Name of the channel.
+     */
+    private Channel(String name)
+    {
+      p50Publisher = table.getDoubleTopic(name + "/p50Ms").publish();
+      p99Publisher = table.getDoubleTopic(name + "/p99Ms").publish();
+      maxPublisher = table.getDoubleTopic(name + "/maxMs").publish();
+    }
+
+    /**
+     * Start timing the section.
+     */
+    public void start()
+    {
+      startTime = System.nanoTime();
+    }
+
+    /**
+     * Stop timing the section and record the duration since {@link #start()}.
+     */
+    public void stop()
+    {
+      record(System.nanoTime() - startTime);
+    }
+
+    /**
+     * Record a duration.
+     *
+     * @param nanos Duration in nanoseconds.
+     */
+    public void record(long nanos)
+    {
+      samples[index] = nanos;
+      index = (index + 1) % SAMPLES;
+      if (count < SAMPLES)
+      {
+        count++;
+      }
+    }
+
+    /**
+     * Publish the p50/p99/max of the buffered samples in milliseconds.
+     */
+    private void publish()
+    {
+      if (count == 0)
+      {
+        return;
+      }
+      System.arraycopy(samples, 0, sorted, 0, count);
+      Arrays.sort(sorted, 0, count);
+      p50Publisher.set(sorted[(count - 1) / 2] / 1e6);
+      p99Publisher.set(sorted[(int) Math.ceil(count * 0.99) - 1] / 1e6);
+      maxPublisher.set(sorted[count - 1] / 1e6);
+    }
+  }
+}
@@ -0,0 +1,190 @@
+package frc.robot.util;
+
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.Filesystem;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Records how long each phase of robot startup takes, from JVM start until {@link #finish()} at the end of
+ * {@code robotInit()}. Phases can be nested and also record how many classes were loaded while they ran.
+ * <p>
+ * On finish the trace is printed and written to {@code startup_trace.json} and {@code startup_latest.properties} in the
+ * operating directory ({@code /home/lvuser} on the roboRIO). Copy {@code startup_latest.properties} to
+ * {@code src/main/deploy/startup_baseline.properties} to use it as the baseline, phases which regress from the baseline
+ * are reported as Driver Station warnings.
+ */
+public final class StartupTracer
+{
+
+  /**
+   * Relative slowdown from the baseline at which a phase is flagged.
+   */
+  private static final double             REGRESSION_RATIO = 1.25;
+  /**
+   * Minimum slowdown from the baseline in milliseconds at which a phase is flagged, ignores noise on short phases.
+   */
+  private static final double             REGRESSION_MS    = 50;
+  /**
+   * Class loading statistics of the JVM.
+   */
+  private static final ClassLoadingMXBean classLoading     = ManagementFactory.getClassLoadingMXBean();
+  /**
+   * Every phase in the order it was started.
+   */
+  private static final List<Phase>        phases           = new ArrayList<>();
+  /**
+   * Phases which have been started but not ended, innermost first.
+   */
+  private static final Deque<Phase>       open             = new ArrayDeque<>();
+  /**
+   * Whether {@link #finish()} has been called, phases started afterwards are ignored.
+   */
+  private static       boolean            finished         = false;
+
+  private StartupTracer()
+  {
+  }
+
+  /**
+   * Start a phase. The first phase also records the time spent between JVM start and the call.
+   *
+   * @param name Name of the phase, nested phases are prefixed by the name of their parent.
+   */
+  public static void begin(String name)
+  {
+    if (finished)
+    {
+      return;
+    }
+    if (phases.isEmpty())
+    {
+      Phase jvm = new Phase("jvmStart", 0);
+      jvm.durationMs = ManagementFactory.getRuntimeMXBean().getUptime();
+      jvm.classesLoaded = classLoading.getTotalLoadedClassCount();
+      phases.add(jvm);
+    }
+    Phase phase = new Phase(open.isEmpty() ? name : open.peek().name + "/" + name, open.size());
+    phases.add(phase);
+    open.push(phase);
+    phase.startClasses = classLoading.getTotalLoadedClassCount();
+    phase.startNanos = System.nanoTime();
+  }
+
+  /**
+   * End the innermost phase.
+   */
+  public static void end()
+  {
+    if (finished || open.isEmpty())
+    {
+      return;
+    }
+    Phase phase = open.pop();
+    phase.durationMs = (System.nanoTime() - phase.startNanos) / 1e6;
+    phase.classesLoaded = classLoading.getTotalLoadedClassCount() - phase.startClasses;
+  }
+
+  /**
+   * End every open phase, report the trace and compare it against the baseline. Should be called at the end of
+   * {@code robotInit()}.
+   */
+  public static void finish()
+  {
+    if (finished)
+    {
+      return;
+    }
+    while (!open.isEmpty())
+    {
+      end();
+    }
+    finished = true;
+
+    Properties baseline = new Properties();
+    File       baselineFile = new File(Filesystem.getDeployDirectory(), "startup_baseline.properties");
+    if (baselineFile.isFile())
+    {
+      try (Reader reader = new FileReader(baselineFile))
+      {
+        baseline.load(reader);
+      } catch (IOException e)
+      {
+        DriverStation.reportWarning("Could not read startup baseline: " + e.getMessage(), false);
+      }
+    }
+
+    Properties latest = new Properties();
+    StringBuilder json = new StringBuilder("[\n");
+    System.out.println("Startup trace (ms, classes loaded):");
+    for (int i = 0; i < phases.size(); i++)
+    {
+      Phase phase = phases.get(i);
+      latest.setProperty(phase.name, Double.toString(phase.durationMs));
+      System.out.printf("  %s%-40s %9.1f %6d%n", "  ".repeat(phase.depth), phase.name, phase.durationMs,
+                        phase.classesLoaded);
+      json.append(String.format("  {\"phase\": \"%s\", \"depth\": %d, \"ms\": %.3f, \"classes\": %d}%s%n",
+                                phase.name, phase.depth, phase.durationMs, phase.classesLoaded,
+                                i < phases.size() - 1 ? "," : ""));
+
+      String baselineMs = baseline.getProperty(phase.name);
+      if (baselineMs != null)
+      {
+        double expected = Double.parseDouble(baselineMs);
+        if (phase.durationMs > expected * REGRESSION_RATIO && phase.durationMs - expected > REGRESSION_MS)
+        {
+          DriverStation.reportWarning(String.format("Startup phase '%s' took %.1f ms, baseline is %.1f ms",
+                                                    phase.name, phase.durationMs, expected), false);
+        }
+      }
+    }
+    json.append("]\n");
+
+    File directory = Filesystem.getOperatingDirectory();
+    try (Writer writer = new FileWriter(new File(directory, "startup_trace.json")))
+    {
+      writer.write(json.toString());
+    } catch (IOException e)
+    {
+      DriverStation.reportWarning("Could not write startup trace: " + e.getMessage(), false);
+    }
+    try (Writer writer = new FileWriter(new File(directory, "startup_latest.properties")))
+    {
+      latest.store(writer, "Startup phase durations in milliseconds");
+    } catch (IOException e)
+    {
+      DriverStation.reportWarning("Could not write startup timings: " + e.getMessage(), false);
+    }
+  }
+
+  /**
+   * A single traced phase.
+   */
+  private static final class Phase
+  {
+
+    private final String name;
+    private final int    depth;
+    private       long   startNanos;
+    private       long   startClasses;
+    private       double durationMs;
+    private       long   classesLoaded;
+
+    private Phase(String name, int depth)
+    {
+      this.name = name;
+      this.depth = depth;
+    }
+  }
+}
@@ -0,0 +1,272 @@
+package frc.robot.util;
+
+import edu.wpi.first.networktables.BooleanPublisher;
+import edu.wpi.first.networktables.DoublePublisher;
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.wpilibj.DriverStation;
+import swervelib.telemetry.SwerveDriveTelemetry;
+import swervelib.telemetry.SwerveDriveTelemetry.TelemetryVerbosity;
+
+/**
+ * Rate limited telemetry. Values are published through typed NetworkTables publishers created once up front instead of
+ * string keyed {@code SmartDashboard} calls, and each {@link Channel} only publishes at its {@link Rate}.
+ * <p>
+ * While the FMS is attached the robot is in match mode: {@link Level#DEBUG} channels stop publishing and YAGSL drops to
+ * {@link TelemetryVerbosity#LOW}, leaving the radio bandwidth and loop time for driving.
+ */
+public final class Telemetry
+{
+
+  /**
+   * Publish rates, in loops of the default 20ms robot period.
+   */
+  public enum Rate
+  {
+    /**
+     * Every loop, 50Hz.
+     */
+    FAST(1),
+    /**
+     * Every fifth loop, 10Hz.
+     */
+    MEDIUM(5),
+    /**
+     * Every fiftieth loop, 1Hz.
+     */
+    SLOW(50);
+
+    /**
+     * Loops between publishes.
+     */
+    private final int period;
+
+    Rate(int period)
+    {
+      this.period = period;
+    }
+  }
+
+  /**
+   * Who a channel is for.
+   */
+  public enum Level
+  {
+    /**
+     * Needed by the drive team, always published.
+     */
+    MATCH,
+    /**
+     * Only needed for tuning and debugging, not published in match mode.
+     */
+    DEBUG
+  }
+
+  /**
+   * Table the values are published in, shared with {@code SmartDashboard} so existing dashboard layouts keep working.
+   */
+  private static final NetworkTable       table           =
+      NetworkTableInstance.getDefault().getTable("SmartDashboard");
+  /**
+   * YAGSL verbosity used outside of match mode.
+   */
+  private static       TelemetryVerbosity swerveVerbosity = SwerveDriveTelemetry.verbosity;
+  /**
+   * Number of loops since startup.
+   */
+  private static       long               loop;
+  /**
+   * Number of channels created, used to spread channels with the same rate over different loops.
+   */
+  private static       int                channelCount;
+  /**
+   * Whether the FMS is attached.
+   */
+  private static       boolean            matchMode;
+
+  private Telemetry()
+  {
+  }
+
+  /**
+   * Create a channel without a publisher, for gating work such as {@code Field2d} updates.
+   *
+   * @param rate  Publish rate.
+   * @param level Level of the channel.
+   * @return The channel.
+   */
+  public static Channel channel(Rate rate, Level level)
+  {
+    return new Channel(rate, level);
+  }
+
+  /**
+   * Create a double channel.
+   *
+   * @param name  Name of the value.
+   * @param rate  Publish rate.
+   * @param level Level of the channel.
+   * @return The channel.
+   */
+  public static DoubleChannel doubleChannel(String name, Rate rate, Level level)
+  {
+    return new DoubleChannel(table.getDoubleTopic(name).publish(), rate, level);
+  }
+
+  /**
+   * Create a boolean channel.
+   *
+   * @param name  Name of the value.
+   * @param rate  Publish rate.
+   * @param level Level of the channel.
+   * @return The channel.
+   */
+  public static BooleanChannel booleanChannel(String name, Rate rate, Level level)
+  {
+    return new BooleanChannel(table.getBooleanTopic(name).publish(), rate, level);
+  }
+
+  /**
+   * Set the YAGSL verbosity to use outside of match mode.
+   *
+   * @param verbosity YAGSL verbosity.
+   */
+  public static void setSwerveVerbosity(TelemetryVerbosity verbosity)
+  {
+    swerveVerbosity = verbosity;
+    if (!matchMode)
+    {
+      SwerveDriveTelemetry.verbosity = verbosity;
+    }
+  }
+
+  /**
+   * Whether the robot is in match mode.
+   *
+   * @return True while the FMS is attached.
+   */
+  public static boolean isMatchMode()
+  {
+    return matchMode;
+  }
+
+  /**
+   * Advance the loop counter and switch in and out of match mode. Should be called once at the start of every loop,
+   * before the mode specific periodic functions, from {@code Robot.loopFunc()}.
+   */
+  public static void periodic()
+  {
+    loop++;
+    boolean fmsAttached = DriverStation.isFMSAttached();
+    if (fmsAttached != matchMode)
+    {
+      matchMode = fmsAttached;
+      SwerveDriveTelemetry.verbosity = matchMode ? TelemetryVerbosity.LOW : swerveVerbosity;
+    }
+  }
+
+  /**
+   * Rate limit for a single telemetry value.
+   */
+  public static class Channel
+  {
+
+    /**
+     * Publish rate.
+     */
+    private final Rate  rate;
+    /**
+     * Level of the channel.
+     */
+    private final Level level;
+    /**
+     * Loop at which the channel publishes next.
+     */
+    private       long  nextLoop;
+
+    private Channel(Rate rate, Level level)
+    {
+      this.rate = rate;
+      this.level = level;
+      nextLoop = channelCount++ % rate.period;
+    }
+
+    /**
+     * Check whether the channel should publish in this loop. Returns true at most once per period, so it should be
+     * called once per loop and the value published when it returns true.
+     *
+     * @return True when the value should be published.
+     */
+    public boolean shouldPublish()
+    {
+      if (loop < nextLoop || (matchMode && level == Level.DEBUG))
+      {
+        return false;
+      }
+      nextLoop = loop + rate.period;
+      return true;
+    }
+  }
+
+  /**
+   * Rate limited double value.
+   */
+  public static final class DoubleChannel extends Channel
+  {
+
+    /**
+     * Publisher of the value.
+     */
+    private final DoublePublisher publisher;
+
+    private DoubleChannel(DoublePublisher publisher, Rate rate, Level level)
+    {
+      super(rate, level);
+      this.publisher = publisher;
+    }
+
+    /**
+     * Publish the value if the channel is due.
+     *
+     * @param value Value to publish.
+     */
+    public void set(double value)
+    {
+      if (shouldPublish())
+      {
+        publisher.set(value);
+      }
+    }
+  }
+
+  /**
+   * Rate limited boolean value.
+   */
+  public static final class BooleanChannel extends Channel
+  {
+
+    /**
+     * Publisher of the value.
+     */
+    private final BooleanPublisher publisher;
+
+    private BooleanChannel(BooleanPublisher publisher, Rate rate, Level level)
+    {
+      super(rate, level);
+      this.publisher = publisher;
+    }
+
+    /**
+     * Publish the value if the channel is due.
+     *
+     * @param value Value to publish.
+     */
+    public void set(boolean value)
+    {
+      if (shouldPublish())
+      {
+        publisher.set(value);
+      }
+    }
+  }
+}
@@ -0,0 +1,150 @@
+package frc.robot.subsystems.Vision;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import edu.wpi.first.apriltag.AprilTagFieldLayout;
+import edu.wpi.first.hal.HAL;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Rotation3d;
+import edu.wpi.first.math.geometry.Transform3d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.geometry.Translation3d;
+import edu.wpi.first.wpilibj.smartdashboard.Field2d;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.photonvision.targeting.PhotonPipelineResult;
+import org.photonvision.targeting.PhotonTrackedTarget;
+
+class NoteTrackerTest
+{
+
+  private static final double DELTA = 1e-6;
+
+  /**
+   * Camera 1 m above the note centers, pitched 45 degrees down, so a target at the image center is 1 m ahead.
+   */
+  private static final Transform3d ROBOT_TO_CAMERA =
+      new Transform3d(new Translation3d(0, 0, 1 + NoteTracker.NOTE_HEIGHT), new Rotation3d(0, Math.toRadians(45), 0));
+
+  private NoteTracker tracker;
+
+  @BeforeAll
+  static void initializeHal()
+  {
+    HAL.initialize(500, 0);
+  }
+
+  @BeforeEach
+  void createTracker()
+  {
+    tracker = new NoteTracker(ROBOT_TO_CAMERA, new AprilTagFieldLayout(List.of(), 16.54, 8.21), new Field2d());
+  }
+
+  private static PhotonTrackedTarget target(double yawDegrees, double pitchDegrees)
+  {
+    return new PhotonTrackedTarget(yawDegrees, pitchDegrees, 1, 0, -1, new Transform3d(), new Transform3d(), 0,
+                                   List.of(), List.of());
+  }
+
+  private static PhotonPipelineResult result(double timestamp, PhotonTrackedTarget... targets)
+  {
+    PhotonPipelineResult result = new PhotonPipelineResult(0, new ArrayList<>(List.of(targets)));
+    result.setTimestampSeconds(timestamp);
+    return result;
+  }
+
+  /**
+   * Feed the same frame until its tracks are confirmed.
+   */
+  private void confirm(Pose2d robotPose, double timestamp, PhotonTrackedTarget... targets)
+  {
+    for (int i = 0; i < NoteTracker.MIN_HITS; i++)
+    {
+      double t = timestamp + i * 0.02;
+      tracker.update(result(t, targets), robotPose, t);
+    }
+  }
+
+  @Test
+  void projectsYawAndPitchOntoTheCarpet()
+  {
+    confirm(new Pose2d(2, 3, new Rotation2d()), 1, target(0, 0));
+    Translation2d note = tracker.getBestNote(new Pose2d(2, 3, new Rotation2d()));
+    assertNotNull(note);
+    assertEquals(3, note.getX(), DELTA);
+    assertEquals(3, note.getY(), DELTA);
+  }
+
+  @Test
+  void projectsYawToTheRightOfARotatedRobot()
+  {
+    // Positive yaw is to the right, 1 m ahead and tan(20) / sin(45) m to the right in the robot frame.
+    double right = Math.tan(Math.toRadians(20)) / Math.sin(Math.toRadians(45));
+    Pose2d robot = new Pose2d(2, 3, Rotation2d.fromDegrees(90));
+    confirm(robot, 1, target(20, 0));
+    Translation2d note = tracker.getBestNote(robot);
+    assertNotNull(note);
+    assertEquals(2 + right, note.getX(), DELTA);
+    assertEquals(4, note.getY(), DELTA);
+  }
+
+  @Test
+  void associatesNearbyDetectionsWithTheExistingTrack()
+  {
+    Pose2d robot = new Pose2d(2, 3, new Rotation2d());
+    tracker.update(result(1, target(0, 0)), robot, 1);
+    tracker.update(result(1.02, target(0.5, 0)), robot, 1.02);
+    assertEquals(1, tracker.getTrackCount());
+
+    tracker.update(result(1.04, target(20, 0)), robot, 1.04);
+    assertEquals(2, tracker.getTrackCount());
+  }
+
+  @Test
+  void unconfirmedTracksAreNotReported()
+  {
+    Pose2d robot = new Pose2d(2, 3, new Rotation2d());
+    tracker.update(result(1, target(0, 0)), robot, 1);
+    assertNull(tracker.getBestNote(robot));
+  }
+
+  @Test
+  void tracksTimeOut()
+  {
+    Pose2d robot = new Pose2d(2, 3, new Rotation2d());
+    confirm(robot, 1, target(0, 0));
+    assertEquals(1, tracker.getTrackCount());
+
+    double now = 1.04 + NoteTracker.TRACK_TIMEOUT - 0.1;
+    tracker.update(result(now), robot, now);
+    assertEquals(1, tracker.getTrackCount());
+
+    now = 1.04 + NoteTracker.TRACK_TIMEOUT + 0.1;
+    tracker.update(result(now), robot, now);
+    assertEquals(0, tracker.getTrackCount());
+    assertNull(tracker.getBestNote(robot));
+  }
+
+  @Test
+  void bestNoteSwitchesOnlyPastTheMargin()
+  {
+    // Note A 1 m ahead at (3, 3), note B at (3, 3 - tan(30) / sin(45)).
+    Pose2d robot = new Pose2d(2, 3, new Rotation2d());
+    confirm(robot, 1, target(0, 0), target(30, 0));
+    double noteBY = 3 - Math.tan(Math.toRadians(30)) / Math.sin(Math.toRadians(45));
+
+    assertEquals(3, tracker.getBestNote(robot).getY(), DELTA);
+    // B is closer, but by less than the margin.
+    assertEquals(3, tracker.getBestNote(new Pose2d(2, 2.4, new Rotation2d())).getY(), DELTA);
+    // B is closer by more than the margin.
+    assertEquals(noteBY, tracker.getBestNote(new Pose2d(3, 2, new Rotation2d())).getY(), DELTA);
+    // And stays the best note when A is closer again, but by less than the margin.
+    assertEquals(noteBY, tracker.getBestNote(robot).getY(), DELTA);
+  }
+}
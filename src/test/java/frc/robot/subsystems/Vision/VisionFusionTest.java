@@ -0,0 +1,110 @@
+package frc.robot.subsystems.Vision;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N3;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class VisionFusionTest
+{
+
+  private static final double DELTA = 1e-9;
+
+  /**
+   * Measurement passed to the consumer.
+   */
+  private record Fused(Pose2d pose, double timestamp, Matrix<N3, N1> stdDevs)
+  {
+
+  }
+
+  private final VisionFusion fusion   = new VisionFusion(8);
+  private final List<Fused>  measured = new ArrayList<>();
+
+  private void fuse()
+  {
+    fusion.fuse((pose, timestamp, stdDevs) -> measured.add(new Fused(pose, timestamp, stdDevs)));
+  }
+
+  @Test
+  void singleMeasurementPassesThrough()
+  {
+    Pose2d pose = new Pose2d(3, 4, Rotation2d.fromDegrees(30));
+    assertTrue(fusion.add(0, pose, 10, VecBuilder.fill(0.5, 0.6, 0.7), 10.05));
+    fuse();
+
+    assertEquals(1, measured.size());
+    Fused fused = measured.get(0);
+    assertSame(pose, fused.pose());
+    assertEquals(10, fused.timestamp(), DELTA);
+    assertEquals(0.5, fused.stdDevs().get(0, 0), DELTA);
+    assertEquals(0.6, fused.stdDevs().get(1, 0), DELTA);
+    assertEquals(0.7, fused.stdDevs().get(2, 0), DELTA);
+  }
+
+  @Test
+  void simultaneousMeasurementsAreCombined()
+  {
+    fusion.add(0, new Pose2d(1, 2, Rotation2d.fromDegrees(10)), 10, VecBuilder.fill(1, 1, 1), 10.05);
+    fusion.add(1, new Pose2d(4, 5, Rotation2d.fromDegrees(10)), 10.01, VecBuilder.fill(2, 2, 2), 10.05);
+    fuse();
+
+    assertEquals(1, measured.size());
+    Fused fused = measured.get(0);
+    // Inverse variance weights of 1 and 1/4.
+    assertEquals((1 * 1 + 4 * 0.25) / 1.25, fused.pose().getX(), DELTA);
+    assertEquals((2 * 1 + 5 * 0.25) / 1.25, fused.pose().getY(), DELTA);
+    assertEquals(10, fused.pose().getRotation().getDegrees(), 1e-6);
+    assertEquals((10 * 1 + 10.01 * 0.25) / 1.25, fused.timestamp(), DELTA);
+    assertEquals(Math.sqrt(1 / 1.25), fused.stdDevs().get(0, 0), DELTA);
+    assertEquals(Math.sqrt(1 / 1.25), fused.stdDevs().get(1, 0), DELTA);
+    assertEquals(Math.sqrt(1 / 1.25), fused.stdDevs().get(2, 0), DELTA);
+  }
+
+  @Test
+  void sameCameraIsNotCombined()
+  {
+    fusion.add(0, new Pose2d(1, 2, new Rotation2d()), 10, VecBuilder.fill(1, 1, 1), 10.05);
+    fusion.add(0, new Pose2d(4, 5, new Rotation2d()), 10.01, VecBuilder.fill(1, 1, 1), 10.05);
+    fuse();
+
+    assertEquals(2, measured.size());
+    assertEquals(10, measured.get(0).timestamp(), DELTA);
+    assertEquals(10.01, measured.get(1).timestamp(), DELTA);
+  }
+
+  @Test
+  void unusableStdDevsAreRejected()
+  {
+    assertFalse(fusion.add(0,
+                           new Pose2d(1, 2, new Rotation2d()),
+                           10,
+                           VecBuilder.fill(Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE),
+                           10.05));
+    fusion.add(1, new Pose2d(4, 5, new Rotation2d()), 10, VecBuilder.fill(1, 1, 1), 10.05);
+    fuse();
+
+    assertEquals(1, measured.size());
+    assertEquals(4, measured.get(0).pose().getX(), DELTA);
+  }
+
+  @Test
+  void staleMeasurementsAreRejected()
+  {
+    assertTrue(fusion.isStale(10, 10 + VisionFusion.MAX_AGE + 0.01));
+    assertFalse(fusion.add(0, new Pose2d(), 10, VecBuilder.fill(1, 1, 1), 10 + VisionFusion.MAX_AGE + 0.01));
+    fuse();
+
+    assertTrue(measured.isEmpty());
+  }
+}